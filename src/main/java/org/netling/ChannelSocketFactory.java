@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import javax.net.SocketFactory;
+
+/**
+ * A {@link SocketFactory} whose sockets are backed by a {@link SocketChannel}, i.e. {@link Socket#getChannel()} does
+ * not return {@code null}. This is needed by clients that switch to non-blocking I/O once connected.
+ *
+ * @see SocketClient#setSocketFactory
+ */
+public class ChannelSocketFactory
+        extends SocketFactory {
+
+    @Override
+    public Socket createSocket()
+            throws IOException {
+        return SocketChannel.open().socket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port)
+            throws IOException {
+        return connected(new InetSocketAddress(host, port), null);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port)
+            throws IOException {
+        return connected(new InetSocketAddress(address, port), null);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localAddr, int localPort)
+            throws IOException {
+        return connected(new InetSocketAddress(host, port), new InetSocketAddress(localAddr, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddr, int localPort)
+            throws IOException {
+        return connected(new InetSocketAddress(address, port), new InetSocketAddress(localAddr, localPort));
+    }
+
+    private Socket connected(InetSocketAddress remote, InetSocketAddress local)
+            throws IOException {
+        final Socket socket = createSocket();
+        try {
+            if (local != null)
+                socket.bind(local);
+            socket.connect(remote);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+}
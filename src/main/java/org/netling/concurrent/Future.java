@@ -15,6 +15,8 @@
  */
 package org.netling.concurrent;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Condition;
@@ -29,9 +31,41 @@ import org.slf4j.LoggerFactory;
  * <p/>
  * For atomic operations on a future, e.g. checking if a value is set and if it is not then setting it - in other words,
  * Compare-And-Set type operations - the associated lock for the future should be acquired while doing so.
+ * <p/>
+ * Rather than having a thread wait, a {@link Listener} may be {@link #addListener added} to be told of the outcome, and
+ * futures may be {@link #transform transformed} into futures of something derived from the value.
  */
 public class Future<V, T extends Throwable> {
 
+    /**
+     * Told of the outcome of a future. Listeners are called by the thread that sets the value or the error, so they
+     * should not block; in particular, they must not wait on a future that the same thread would have to set.
+     */
+    public interface Listener<V, T extends Throwable> {
+
+        /** Called once the value has been set. */
+        void completed(V val);
+
+        /** Called once an error has been set. */
+        void failed(T error);
+
+    }
+
+    /** Derives a value from that of a future; see {@link #transform}. */
+    public interface Transformer<V, U, T extends Throwable> {
+
+        /**
+         * @param val the value of the future being transformed
+         *
+         * @return the derived value, which must not be {@code null}
+         *
+         * @throws T if no value can be derived, which is delivered as the error of the transformed future
+         */
+        U transform(V val)
+                throws T;
+
+    }
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final String name;
@@ -41,6 +75,8 @@ public class Future<V, T extends Throwable> {
 
     private V val;
     private T pendingEx;
+    private TimerWheel.Timeout expiry;
+    private List<Listener<V, T>> listeners;
 
     /**
      * Creates this future with given {@code name} and exception {@code chainer}. Allocates a new {@link
@@ -73,14 +109,18 @@ public class Future<V, T extends Throwable> {
      * @param val the value
      */
     public void set(V val) {
+        final List<Listener<V, T>> toNotify;
         lock();
         try {
             log.debug("Setting <<{}>> to `{}`", name, val);
             this.val = val;
+            cancelExpiry();
             cond.signalAll();
+            toNotify = takeListeners();
         } finally {
             unlock();
         }
+        notifyListeners(toNotify);
     }
 
     /**
@@ -90,13 +130,69 @@ public class Future<V, T extends Throwable> {
      * @param e the error
      */
     public void error(Throwable e) {
+        final List<Listener<V, T>> toNotify;
         lock();
         try {
             pendingEx = chainer.chain(e);
+            cancelExpiry();
             cond.signalAll();
+            toNotify = takeListeners();
+        } finally {
+            unlock();
+        }
+        notifyListeners(toNotify);
+    }
+
+    /**
+     * Adds a listener to be told of this future's value or error. If either has been set already, the listener is
+     * called straight away by the calling thread. Each listener is called at most once.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener<V, T> listener) {
+        lock();
+        try {
+            if (val == null && pendingEx == null) {
+                if (listeners == null)
+                    listeners = new ArrayList<Listener<V, T>>(1);
+                listeners.add(listener);
+                return;
+            }
         } finally {
             unlock();
         }
+        tell(listener);
+    }
+
+    /**
+     * Returns a future whose value is derived from this future's value by {@code transformer}, once that is set. An
+     * error set on this future, or thrown by the transformer, is set on the returned future.
+     *
+     * @param transformer derives the value
+     *
+     * @return the transformed future
+     */
+    public <U> Future<U, T> transform(final Transformer<? super V, ? extends U, T> transformer) {
+        final Future<U, T> transformed = new Future<U, T>(name, chainer);
+        addListener(new Listener<V, T>() {
+            @Override
+            public void completed(V val) {
+                final U derived;
+                try {
+                    derived = transformer.transform(val);
+                } catch (Throwable e) {
+                    transformed.error(e);
+                    return;
+                }
+                transformed.set(derived);
+            }
+
+            @Override
+            public void failed(T error) {
+                transformed.error(error);
+            }
+        });
+        return transformed;
     }
 
     /** Clears this future by setting its value and queued exception to {@code null}. */
@@ -104,7 +200,8 @@ public class Future<V, T extends Throwable> {
         lock();
         try {
             pendingEx = null;
-            set(null);
+            val = null;
+            cancelExpiry();
         } finally {
             unlock();
         }
@@ -158,6 +255,44 @@ public class Future<V, T extends Throwable> {
         }
     }
 
+    /**
+     * Makes this future fail with a timeout error unless its value or an error is set within {@code timeout}. Unlike
+     * waiting with {@link #get(long, TimeUnit)}, this does not need a thread to wait, as the timeout is kept by the
+     * {@link TimerWheel#SHARED shared timer wheel}.
+     *
+     * @param timeout the timeout
+     * @param unit    time unit for the timeout
+     */
+    public void expireAfter(long timeout, TimeUnit unit) {
+        lock();
+        try {
+            if (val != null || pendingEx != null)
+                return;
+            cancelExpiry();
+            expiry = TimerWheel.SHARED.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    final List<Listener<V, T>> toNotify;
+                    lock();
+                    try {
+                        if (val != null || pendingEx != null)
+                            return;
+                        log.debug("<<{}>> expired", name);
+                        pendingEx = chainer.chain(new TimeoutException("Timeout expired"));
+                        expiry = null;
+                        cond.signalAll();
+                        toNotify = takeListeners();
+                    } finally {
+                        unlock();
+                    }
+                    notifyListeners(toNotify);
+                }
+            }, timeout, unit);
+        } finally {
+            unlock();
+        }
+    }
+
     /** @return whether this future has a value set, and no error waiting to pop. */
     public boolean isSet() {
         lock();
@@ -188,6 +323,50 @@ public class Future<V, T extends Throwable> {
         }
     }
 
+    /** Must be called with the lock held. Takes the listeners to be notified, if the outcome is known. */
+    private List<Listener<V, T>> takeListeners() {
+        if (val == null && pendingEx == null)
+            return null;
+        final List<Listener<V, T>> taken = listeners;
+        listeners = null;
+        return taken;
+    }
+
+    /** Must be called without the lock held. */
+    private void notifyListeners(List<Listener<V, T>> toNotify) {
+        if (toNotify != null)
+            for (Listener<V, T> listener : toNotify)
+                tell(listener);
+    }
+
+    private void tell(Listener<V, T> listener) {
+        final V v;
+        final T ex;
+        lock();
+        try {
+            v = val;
+            ex = pendingEx;
+        } finally {
+            unlock();
+        }
+        try {
+            if (ex != null)
+                listener.failed(ex);
+            else
+                listener.completed(v);
+        } catch (RuntimeException e) {
+            log.warn("Listener on <<{}>> failed: {}", name, e.toString());
+        }
+    }
+
+    /** Must be called with the lock held. */
+    private void cancelExpiry() {
+        if (expiry != null) {
+            expiry.cancel();
+            expiry = null;
+        }
+    }
+
     /**
      * Lock using the associated lock. Use as part of a {@code try-finally} construct in conjunction with {@link
      * #unlock()}.
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel, which keeps any number of timeouts with a single thread rather than a thread or a waiting
+ * thread per timeout.
+ * <p/>
+ * Time is divided into ticks, and each timeout is put in the bucket of the tick it is due in, modulo the number of
+ * buckets. Once per tick the thread runs the due timeouts in the current bucket, so scheduling and cancelling take
+ * constant time and timeouts fire up to one tick late. The thread only wakes up while there are timeouts.
+ * <p/>
+ * Timeout tasks are handed to an {@link Executor}, so that a task that blocks, e.g. writing a heartbeat on a congested
+ * connection, does not hold up other timeouts.
+ */
+public class TimerWheel {
+
+    /** A scheduled task, which may be {@link #cancel() cancelled} before it is due. */
+    public final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+
+        private Timeout prev;
+        private Timeout next;
+        private boolean scheduled = true;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout if it is not yet due.
+         *
+         * @return whether this timeout was cancelled, i.e. its task will not run
+         */
+        public boolean cancel() {
+            lock.lock();
+            try {
+                if (!scheduled)
+                    return false;
+                unlink(this);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+    /** The timer wheel shared by all connections, with a tick of 100 milliseconds. */
+    public static final TimerWheel SHARED = new TimerWheel("timer", 100, TimeUnit.MILLISECONDS, 512);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final long tickNanos;
+    private final Executor executor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition scheduled = lock.newCondition();
+
+    /** Heads of the bucket lists; guarded by {@link #lock} */
+    private final Timeout[] buckets;
+    private final int mask;
+    /** Number of scheduled timeouts; guarded by {@link #lock} */
+    private int count;
+    /** The last tick that has been processed; guarded by {@link #lock} */
+    private long tick;
+
+    private final long start = System.nanoTime();
+    private Thread thread;
+
+    /**
+     * Creates a timer wheel that runs tasks on a pool of daemon threads.
+     *
+     * @param name         name for the timer thread and task threads
+     * @param tickDuration duration of a tick
+     * @param unit         time unit for {@code tickDuration}
+     * @param wheelSize    number of buckets, rounded up to a power of 2
+     */
+    public TimerWheel(final String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        this(name, tickDuration, unit, wheelSize, Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, name + "-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+    }
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param name         name for the timer thread
+     * @param tickDuration duration of a tick
+     * @param unit         time unit for {@code tickDuration}
+     * @param wheelSize    number of buckets, rounded up to a power of 2
+     * @param executor     executor to run tasks on
+     */
+    public TimerWheel(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor executor) {
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.executor = executor;
+        int size = 1;
+        while (size < wheelSize)
+            size <<= 1;
+        buckets = new Timeout[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Schedules a task to run once after the specified delay.
+     *
+     * @param task  task to run
+     * @param delay delay
+     * @param unit  time unit for {@code delay}
+     *
+     * @return a handle for cancelling the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        lock.lock();
+        try {
+            final long now = System.nanoTime() - start;
+            if (count == 0)
+                tick = now / tickNanos; // Nothing to catch up on
+            final long deadline = Math.max(tick + 1, (now + unit.toNanos(delay) + tickNanos - 1) / tickNanos);
+            final Timeout timeout = new Timeout(task, deadline);
+            final int i = (int) (deadline & mask);
+            timeout.next = buckets[i];
+            if (timeout.next != null)
+                timeout.next.prev = timeout;
+            buckets[i] = timeout;
+            if (count++ == 0) {
+                if (thread == null)
+                    startThread();
+                scheduled.signal();
+            }
+            return timeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startThread() {
+        thread = new Thread(name) {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        final List<Timeout> due = new ArrayList<Timeout>();
+        for (; ;) {
+            lock.lock();
+            try {
+                while (count == 0)
+                    scheduled.awaitUninterruptibly();
+                final long now = (System.nanoTime() - start) / tickNanos;
+                if (tick >= now)
+                    scheduled.awaitNanos((tick + 1) * tickNanos - (System.nanoTime() - start));
+                else
+                    while (tick < now && count > 0)
+                        expire(++tick, due);
+            } catch (InterruptedException e) {
+                // Not interrupted by us, so carry on
+            } finally {
+                lock.unlock();
+            }
+            for (Timeout timeout : due)
+                try {
+                    executor.execute(timeout.task);
+                } catch (RuntimeException e) {
+                    log.error("Could not run timeout task {}: {}", timeout.task, e.toString());
+                }
+            due.clear();
+        }
+    }
+
+    /** Moves the timeouts due by {@code now} from its bucket to {@code due}. Must be called with the lock held. */
+    private void expire(long now, List<Timeout> due) {
+        Timeout timeout = buckets[(int) (now & mask)];
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.deadline <= now) {
+                unlink(timeout);
+                due.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /** Must be called with the lock held. */
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            buckets[(int) (timeout.deadline & mask)] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+        timeout.scheduled = false;
+        count--;
+    }
+
+}
@@ -16,9 +16,12 @@
 package org.netling.sftp;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.netling.concurrent.Future;
 import org.netling.sftp.Response.StatusCode;
 
 public class RemoteDirectory
@@ -31,32 +34,49 @@ public class RemoteDirectory
     public List<RemoteResourceInfo> scan(RemoteResourceFilter filter)
             throws IOException {
         List<RemoteResourceInfo> rri = new LinkedList<RemoteResourceInfo>();
-        loop:
-        for (; ;) {
-            Response res = requester.doRequest(newRequest(PacketType.READDIR));
-            switch (res.getType()) {
-
-                case NAME:
-                    final int count = res.readInt();
-                    for (int i = 0; i < count; i++) {
-                        final String name = res.readString();
-                        res.readString(); // long name - IGNORED - shdve never been in the protocol
-                        final FileAttributes attrs = res.readFileAttributes();
-                        RemoteResourceInfo inf = new RemoteResourceInfo(path, name, attrs);
-                        if (!(name.equals(".") || name.equals("..")) && (filter == null || filter.accept(inf)))
-                            rri.add(inf);
-                    }
-                    break;
-
-                case STATUS:
-                    res.ensureStatusIs(StatusCode.EOF);
-                    break loop;
-
-                default:
-                    throw new SFTPException("Unexpected packet: " + res.getType());
+        List<RemoteResourceInfo> batch;
+        while (!(batch = await(readDirAsync())).isEmpty())
+            for (RemoteResourceInfo inf : batch) {
+                final String name = inf.getName();
+                if (!(name.equals(".") || name.equals("..")) && (filter == null || filter.accept(inf)))
+                    rri.add(inf);
             }
-        }
         return rri;
     }
 
+    /**
+     * Requests the next batch of directory entries, including {@code .} and {@code ..}. The future is set to an empty
+     * list once the end of the directory has been reached.
+     */
+    public Future<List<RemoteResourceInfo>, SFTPException> readDirAsync()
+            throws IOException {
+        return requester.request(newRequest(PacketType.READDIR)).transform(
+                new Future.Transformer<Response, List<RemoteResourceInfo>, SFTPException>() {
+                    @Override
+                    public List<RemoteResourceInfo> transform(Response res)
+                            throws SFTPException {
+                        switch (res.getType()) {
+
+                            case NAME:
+                                final int count = res.readInt();
+                                final List<RemoteResourceInfo> batch = new ArrayList<RemoteResourceInfo>(count);
+                                for (int i = 0; i < count; i++) {
+                                    final String name = res.readString();
+                                    res.readString(); // long name - IGNORED - shdve never been in the protocol
+                                    final FileAttributes attrs = res.readFileAttributes();
+                                    batch.add(new RemoteResourceInfo(path, name, attrs));
+                                }
+                                return batch;
+
+                            case STATUS:
+                                res.ensureStatusIs(StatusCode.EOF);
+                                return Collections.emptyList();
+
+                            default:
+                                throw new SFTPException("Unexpected packet: " + res.getType());
+                        }
+                    }
+                });
+    }
+
 }
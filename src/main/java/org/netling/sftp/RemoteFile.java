@@ -18,7 +18,9 @@ package org.netling.sftp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.LinkedList;
 
+import org.netling.concurrent.Future;
 import org.netling.sftp.Response.StatusCode;
 
 public class RemoteFile
@@ -32,15 +34,26 @@ public class RemoteFile
         return new RemoteFileInputStream();
     }
 
+    public ReadAheadRemoteFileInputStream getReadAheadInputStream(int maxUnconfirmedReads) {
+        return new ReadAheadRemoteFileInputStream(maxUnconfirmedReads);
+    }
+
     public RemoteFileOutputStream getOutputStream() {
         return new RemoteFileOutputStream();
     }
 
+    public RemoteFileOutputStream getOutputStream(int maxUnconfirmedWrites) {
+        return new RemoteFileOutputStream(0, maxUnconfirmedWrites);
+    }
+
     public FileAttributes fetchAttributes()
             throws IOException {
-        return requester.doRequest(newRequest(PacketType.FSTAT))
-                .ensurePacketTypeIs(PacketType.ATTRS)
-                .readFileAttributes();
+        return await(fetchAttributesAsync());
+    }
+
+    public Future<FileAttributes, SFTPException> fetchAttributesAsync()
+            throws IOException {
+        return requester.request(newRequest(PacketType.FSTAT)).transform(Response.ATTRIBUTES);
     }
 
     public long length()
@@ -53,31 +66,62 @@ public class RemoteFile
         setAttributes(new FileAttributes.Builder().withSize(len).build());
     }
 
-    public int read(long fileOffset, byte[] to, int offset, int len)
+    private Future<Response, SFTPException> requestRead(long fileOffset, int len)
             throws IOException {
-        Response res = requester.doRequest(newRequest(PacketType.READ).putUINT64(fileOffset).putInt(len));
-        switch (res.getType()) {
-            case DATA:
-                int recvLen = res.readInt();
-                System.arraycopy(res.array(), res.rpos(), to, offset, recvLen);
-                return recvLen;
+        return requester.request(newRequest(PacketType.READ).putUINT64(fileOffset).putInt(len));
+    }
 
-            case STATUS:
-                res.ensureStatusIs(StatusCode.EOF);
-                return -1;
+    public int read(long fileOffset, byte[] to, int offset, int len)
+            throws IOException {
+        return await(readAsync(fileOffset, to, offset, len));
+    }
 
-            default:
-                throw new SFTPException("Unexpected packet: " + res.getType());
-        }
+    /**
+     * Requests a read, and returns a future for the number of bytes read or -1 on end of file. The data is copied into
+     * {@code to} by the thread reading responses, before the future is set.
+     */
+    public Future<Integer, SFTPException> readAsync(long fileOffset, final byte[] to, final int offset, final int len)
+            throws IOException {
+        return requestRead(fileOffset, len).transform(new Future.Transformer<Response, Integer, SFTPException>() {
+            @Override
+            public Integer transform(Response res)
+                    throws SFTPException {
+                switch (res.getType()) {
+                    case DATA:
+                        int recvLen = res.readInt();
+                        if (recvLen > len)
+                            throw new SFTPException("Server sent " + recvLen + " bytes in response to a read of "
+                                                    + len);
+                        System.arraycopy(res.array(), res.rpos(), to, offset, recvLen);
+                        return recvLen;
+
+                    case STATUS:
+                        res.ensureStatusIs(StatusCode.EOF);
+                        return -1;
+
+                    default:
+                        throw new SFTPException("Unexpected packet: " + res.getType());
+                }
+            }
+        });
     }
 
     public void write(long fileOffset, byte[] data, int off, int len)
             throws IOException {
-        requester.doRequest(newRequest(PacketType.WRITE)
+        await(writeAsync(fileOffset, data, off, len));
+    }
+
+    /** Requests a write; the data is copied before this method returns, so {@code data} may be reused straight away. */
+    public Future<Boolean, SFTPException> writeAsync(long fileOffset, byte[] data, int off, int len)
+            throws IOException {
+        return requester.request(newWriteRequest(fileOffset, data, off, len)).transform(Response.STATUS_OK);
+    }
+
+    private Request newWriteRequest(long fileOffset, byte[] data, int off, int len) {
+        return newRequest(PacketType.WRITE)
                 .putUINT64(fileOffset)
-                .putInt(len - off)
-                .putRawBytes(data, off, len)
-        ).ensureStatusPacketIsOK();
+                .putInt(len)
+                .putRawBytes(data, off, len);
     }
 
     public void setAttributes(FileAttributes attrs)
@@ -95,20 +139,45 @@ public class RemoteFile
                4; // packet length
     }
 
+    /**
+     * Output stream for remote files. By default each {@code WRITE} request is acknowledged before the next is sent.
+     * In write-behind mode, up to a given number of requests are left unacknowledged instead; the first failure among
+     * them is thrown by the next {@link #write}, {@link #flush} or {@link #close}, which also wait for all outstanding
+     * requests to be acknowledged.
+     */
     public class RemoteFileOutputStream
             extends OutputStream {
 
+        /** A sensible number of unacknowledged requests for write-behind mode */
+        public static final int DEFAULT_MAX_UNCONFIRMED_WRITES = 16;
 
         private final byte[] b = new byte[1];
 
+        private final int maxUnconfirmedWrites;
+
+        private final LinkedList<Future<Boolean, SFTPException>> unconfirmed =
+                new LinkedList<Future<Boolean, SFTPException>>();
+
         private long fileOffset;
 
+        /** First failure of a write-behind request, thrown again by any further operation */
+        private IOException error;
+
         public RemoteFileOutputStream() {
             this(0);
         }
 
         public RemoteFileOutputStream(long fileOffset) {
+            this(fileOffset, 0);
+        }
+
+        /**
+         * @param fileOffset           offset in the file to start writing at
+         * @param maxUnconfirmedWrites how many {@code WRITE} requests may be left unacknowledged; 0 waits for each
+         */
+        public RemoteFileOutputStream(long fileOffset, int maxUnconfirmedWrites) {
             this.fileOffset = fileOffset;
+            this.maxUnconfirmedWrites = maxUnconfirmedWrites;
         }
 
         @Override
@@ -121,10 +190,50 @@ public class RemoteFile
         @Override
         public void write(byte[] buf, int off, int len)
                 throws IOException {
-            RemoteFile.this.write(fileOffset, buf, off, len);
+            if (maxUnconfirmedWrites > 0) {
+                checkError();
+                // Collect what has been acknowledged meanwhile, and make room if need be
+                while (!unconfirmed.isEmpty()
+                       && (unconfirmed.size() >= maxUnconfirmedWrites || unconfirmed.getFirst().isSet()
+                           || unconfirmed.getFirst().hasError()))
+                    confirm(unconfirmed.removeFirst());
+                unconfirmed.add(writeAsync(fileOffset, buf, off, len));
+            } else
+                RemoteFile.this.write(fileOffset, buf, off, len);
             fileOffset += len;
         }
 
+        @Override
+        public void flush()
+                throws IOException {
+            checkError();
+            while (!unconfirmed.isEmpty())
+                confirm(unconfirmed.removeFirst());
+        }
+
+        @Override
+        public void close()
+                throws IOException {
+            flush();
+        }
+
+        private void checkError()
+                throws IOException {
+            if (error != null)
+                throw error;
+        }
+
+        private void confirm(Future<Boolean, SFTPException> future)
+                throws IOException {
+            try {
+                await(future);
+            } catch (IOException e) {
+                error = e;
+                unconfirmed.clear();
+                throw e;
+            }
+        }
+
     }
 
     public class RemoteFileInputStream
@@ -186,4 +295,165 @@ public class RemoteFile
         }
 
     }
+
+    /**
+     * Input stream that keeps several {@code READ} requests outstanding, rather than waiting for the response to one
+     * before sending the next; so that a download is not limited to one chunk per round trip.
+     * <p/>
+     * Responses are consumed in the order the reads were requested. If the server returns less data than was asked
+     * for, the rest of that chunk is requested again ahead of the reads already outstanding. Once the server reports
+     * end of file, responses to any reads beyond it are disregarded.
+     */
+    public class ReadAheadRemoteFileInputStream
+            extends InputStream {
+
+        public static final int DEFAULT_MAX_UNCONFIRMED_READS = 16;
+        public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
+        private class UnconfirmedRead {
+
+            private final long offset;
+            private final int length;
+            private final Future<Response, SFTPException> response;
+
+            private UnconfirmedRead(long offset, int length)
+                    throws IOException {
+                this.offset = offset;
+                this.length = length;
+                this.response = requestRead(offset, length);
+            }
+
+        }
+
+        private final byte[] b = new byte[1];
+
+        private final int maxUnconfirmedReads;
+        private final int chunkSize;
+
+        private final LinkedList<UnconfirmedRead> unconfirmed = new LinkedList<UnconfirmedRead>();
+
+        /** Offset of the next chunk to request */
+        private long requestOffset;
+
+        /** Offset that reads stop at */
+        private final long limit;
+
+        /** Data response being consumed, and how much of its data is left */
+        private Response current;
+        private int currentRemaining;
+
+        private boolean eof;
+
+        public ReadAheadRemoteFileInputStream() {
+            this(DEFAULT_MAX_UNCONFIRMED_READS);
+        }
+
+        public ReadAheadRemoteFileInputStream(int maxUnconfirmedReads) {
+            this(maxUnconfirmedReads, DEFAULT_CHUNK_SIZE, 0);
+        }
+
+        /**
+         * @param maxUnconfirmedReads how many {@code READ} requests to keep outstanding
+         * @param chunkSize           how much data to ask for with each request
+         * @param fileOffset          offset in the file to start reading at
+         */
+        public ReadAheadRemoteFileInputStream(int maxUnconfirmedReads, int chunkSize, long fileOffset) {
+            this(maxUnconfirmedReads, chunkSize, fileOffset, Long.MAX_VALUE - fileOffset);
+        }
+
+        /**
+         * Like {@link #ReadAheadRemoteFileInputStream(int, int, long)}, but reads no more than {@code length} bytes,
+         * so that nothing is requested beyond a range of the file.
+         *
+         * @param length how many bytes to read at most
+         */
+        public ReadAheadRemoteFileInputStream(int maxUnconfirmedReads, int chunkSize, long fileOffset, long length) {
+            if (maxUnconfirmedReads < 1 || chunkSize < 1)
+                throw new IllegalArgumentException("Need at least one outstanding read of at least one byte");
+            this.maxUnconfirmedReads = maxUnconfirmedReads;
+            this.chunkSize = chunkSize;
+            this.requestOffset = fileOffset;
+            this.limit = fileOffset + length;
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] into, int off, int len)
+                throws IOException {
+            if (len == 0)
+                return 0;
+            while (currentRemaining == 0)
+                if (!nextResponse())
+                    return -1;
+            final int n = Math.min(len, currentRemaining);
+            System.arraycopy(current.array(), current.rpos(), into, off, n);
+            current.rpos(current.rpos() + n);
+            currentRemaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return currentRemaining;
+        }
+
+        @Override
+        public void close() {
+            unconfirmed.clear();
+            current = null;
+            currentRemaining = 0;
+            eof = true;
+        }
+
+        /**
+         * Tops up the outstanding reads and waits for the response to the oldest one.
+         *
+         * @return {@code false} on end of file, {@code true} otherwise
+         */
+        private boolean nextResponse()
+                throws IOException {
+            while (!eof && unconfirmed.size() < maxUnconfirmedReads && requestOffset < limit) {
+                final int len = (int) Math.min(chunkSize, limit - requestOffset);
+                unconfirmed.add(new UnconfirmedRead(requestOffset, len));
+                requestOffset += len;
+            }
+            if (unconfirmed.isEmpty()) {
+                close();
+                return false;
+            }
+
+            final UnconfirmedRead read = unconfirmed.removeFirst();
+            final Response res = await(read.response);
+            switch (res.getType()) {
+                case DATA:
+                    final int recvLen = res.readInt();
+                    if (recvLen > read.length)
+                        throw new SFTPException("Server sent " + recvLen + " bytes in response to a read of "
+                                                + read.length);
+                    if (recvLen == 0) // Asking again would not get us any further
+                        throw new SFTPException("Server sent no data in response to a read of " + read.length
+                                                + " bytes at offset " + read.offset);
+                    if (recvLen < read.length) // Short read, ask for the rest before anything else
+                        unconfirmed.addFirst(new UnconfirmedRead(read.offset + recvLen, read.length - recvLen));
+                    current = res;
+                    currentRemaining = recvLen;
+                    return true;
+
+                case STATUS:
+                    res.ensureStatusIs(StatusCode.EOF);
+                    close();
+                    return false;
+
+                default:
+                    throw new SFTPException("Unexpected packet: " + res.getType());
+            }
+        }
+
+    }
+
 }
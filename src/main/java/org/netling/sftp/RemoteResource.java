@@ -17,7 +17,9 @@ package org.netling.sftp;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
+import org.netling.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,8 +50,18 @@ public abstract class RemoteResource
     @Override
     public void close()
             throws IOException {
+        await(closeAsync());
+    }
+
+    public Future<Boolean, SFTPException> closeAsync()
+            throws IOException {
         log.info("Closing `{}`", this);
-        requester.doRequest(newRequest(PacketType.CLOSE)).ensureStatusPacketIsOK();
+        return requester.request(newRequest(PacketType.CLOSE)).transform(Response.STATUS_OK);
+    }
+
+    protected <V> V await(Future<V, SFTPException> future)
+            throws SFTPException {
+        return future.get(requester.getTimeout(), TimeUnit.SECONDS);
     }
 
     @Override
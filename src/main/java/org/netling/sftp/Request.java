@@ -16,6 +16,7 @@
 package org.netling.sftp;
 
 import org.netling.concurrent.Future;
+import org.netling.ssh.common.BufferPool;
 
 public class Request
         extends SFTPPacket<Request> {
@@ -25,7 +26,15 @@ public class Request
     private final Future<Response, SFTPException> responseFuture;
 
     public Request(PacketType type, long reqID) {
-        super(type);
+        this(type, reqID, null);
+    }
+
+    /**
+     * Constructs a request whose buffer is obtained from {@code pool}; it is {@link #release() released} by {@link
+     * SFTPEngine#doRequest} once transmitted.
+     */
+    public Request(PacketType type, long reqID, BufferPool pool) {
+        super(type, pool);
         this.type = type;
         this.reqID = reqID;
         responseFuture = new Future<Response, SFTPException>("sftp / " + reqID, SFTPException.chainer);
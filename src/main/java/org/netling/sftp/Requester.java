@@ -17,6 +17,8 @@ package org.netling.sftp;
 
 import java.io.IOException;
 
+import org.netling.concurrent.Future;
+
 public interface Requester {
 
     Request newRequest(PacketType type);
@@ -24,4 +26,19 @@ public interface Requester {
     Response doRequest(Request req)
             throws IOException;
 
+    /**
+     * Sends a request without waiting for the response, so that several requests can be outstanding at a time.
+     *
+     * @param req the request
+     *
+     * @return the future response
+     *
+     * @throws IOException if the request could not be sent
+     */
+    Future<Response, SFTPException> request(Request req)
+            throws IOException;
+
+    /** @return the timeout in seconds for waiting on a response */
+    int getTimeout();
+
 }
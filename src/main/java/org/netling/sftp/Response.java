@@ -15,6 +15,7 @@
  */
 package org.netling.sftp;
 
+import org.netling.concurrent.Future;
 import org.netling.ssh.common.Buffer;
 
 public class Response
@@ -47,6 +48,27 @@ public class Response
 
     }
 
+    /** Checks that a response is a {@code STATUS} of {@link StatusCode#OK} */
+    static final Future.Transformer<Response, Boolean, SFTPException> STATUS_OK =
+            new Future.Transformer<Response, Boolean, SFTPException>() {
+                @Override
+                public Boolean transform(Response res)
+                        throws SFTPException {
+                    res.ensureStatusPacketIsOK();
+                    return true;
+                }
+            };
+
+    /** Reads the file attributes from an {@code ATTRS} response */
+    static final Future.Transformer<Response, FileAttributes, SFTPException> ATTRIBUTES =
+            new Future.Transformer<Response, FileAttributes, SFTPException>() {
+                @Override
+                public FileAttributes transform(Response res)
+                        throws SFTPException {
+                    return res.ensurePacketTypeIs(PacketType.ATTRS).readFileAttributes();
+                }
+            };
+
     private final int protocolVersion;
     private final PacketType type;
     private final long reqID;
@@ -24,6 +24,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import org.netling.concurrent.Future;
+import org.netling.ssh.common.BufferPool;
 import org.netling.ssh.common.SSHException;
 import org.netling.ssh.connection.channel.direct.Session.Subsystem;
 import org.netling.ssh.connection.channel.direct.SessionFactory;
@@ -93,24 +95,32 @@ public class SFTPEngine
 
     @Override
     public synchronized Request newRequest(PacketType type) {
-        return new Request(type, reqID = reqID + 1 & 0xffffffffL);
+        return new Request(type, reqID = reqID + 1 & 0xffffffffL, BufferPool.SHARED);
     }
 
     @Override
     public Response doRequest(Request req)
             throws IOException {
+        return await(request(req));
+    }
+
+    @Override
+    public Future<Response, SFTPException> request(Request req)
+            throws IOException {
         reader.expectResponseTo(req);
         log.debug("Sending {}", req);
-        transmit(req);
-        return req.getResponseFuture().get(timeout, TimeUnit.SECONDS);
+        try {
+            transmit(req);
+        } finally {
+            req.release();
+        }
+        req.getResponseFuture().expireAfter(timeout, TimeUnit.SECONDS);
+        return req.getResponseFuture();
     }
 
     public RemoteFile open(String path, Set<OpenMode> modes, FileAttributes fa)
             throws IOException {
-        final String handle = doRequest(
-                newRequest(PacketType.OPEN).putString(path).putInt(OpenMode.toMask(modes)).putFileAttributes(fa)
-        ).ensurePacketTypeIs(PacketType.HANDLE).readString();
-        return new RemoteFile(this, path, handle);
+        return await(openAsync(path, modes, fa));
     }
 
     public RemoteFile open(String filename, Set<OpenMode> modes)
@@ -125,32 +135,22 @@ public class SFTPEngine
 
     public RemoteDirectory openDir(String path)
             throws IOException {
-        final String handle = doRequest(
-                newRequest(PacketType.OPENDIR).putString(path)
-        ).ensurePacketTypeIs(PacketType.HANDLE).readString();
-        return new RemoteDirectory(this, path, handle);
+        return await(openDirAsync(path));
     }
 
     public void setAttributes(String path, FileAttributes attrs)
             throws IOException {
-        doRequest(
-                newRequest(PacketType.SETSTAT).putString(path).putFileAttributes(attrs)
-        ).ensureStatusPacketIsOK();
+        await(setAttributesAsync(path, attrs));
     }
 
     public String readLink(String path)
             throws IOException {
-        if (operativeVersion < 3)
-            throw new SFTPException("READLINK is not supported in SFTPv" + operativeVersion);
-        return readSingleName(
-                doRequest(
-                        newRequest(PacketType.READLINK).putString(path)
-                ));
+        return await(readLinkAsync(path));
     }
 
     public void makeDir(String path, FileAttributes attrs)
             throws IOException {
-        doRequest(newRequest(PacketType.MKDIR).putString(path).putFileAttributes(attrs)).ensureStatusPacketIsOK();
+        await(makeDirAsync(path, attrs));
     }
 
     public void makeDir(String path)
@@ -160,25 +160,17 @@ public class SFTPEngine
 
     public void symlink(String linkpath, String targetpath)
             throws IOException {
-        if (operativeVersion < 3)
-            throw new SFTPException("SYMLINK is not supported in SFTPv" + operativeVersion);
-        doRequest(
-                newRequest(PacketType.SYMLINK).putString(linkpath).putString(targetpath)
-        ).ensureStatusPacketIsOK();
+        await(symlinkAsync(linkpath, targetpath));
     }
 
     public void remove(String filename)
             throws IOException {
-        doRequest(
-                newRequest(PacketType.REMOVE).putString(filename)
-        ).ensureStatusPacketIsOK();
+        await(removeAsync(filename));
     }
 
     public void removeDir(String path)
             throws IOException {
-        doRequest(
-                newRequest(PacketType.RMDIR).putString(path)
-        ).ensureStatusIs(Response.StatusCode.OK);
+        await(removeDirAsync(path));
     }
 
     public FileAttributes stat(String path)
@@ -193,25 +185,108 @@ public class SFTPEngine
 
     public void rename(String oldPath, String newPath)
             throws IOException {
+        await(renameAsync(oldPath, newPath));
+    }
+
+    public String canonicalize(String path)
+            throws IOException {
+        return await(canonicalizeAsync(path));
+    }
+
+    /*
+     * Asynchronous variants: each sends its request and returns straight away. The returned futures are set by the
+     * thread reading responses, and expire after the timeout. Any number of requests may be outstanding at a time.
+     */
+
+    public Future<RemoteFile, SFTPException> openAsync(final String path, Set<OpenMode> modes, FileAttributes fa)
+            throws IOException {
+        return request(newRequest(PacketType.OPEN).putString(path).putInt(OpenMode.toMask(modes)).putFileAttributes(fa))
+                .transform(new Future.Transformer<Response, RemoteFile, SFTPException>() {
+                    @Override
+                    public RemoteFile transform(Response res)
+                            throws SFTPException {
+                        return new RemoteFile(SFTPEngine.this, path, readHandle(res));
+                    }
+                });
+    }
+
+    public Future<RemoteDirectory, SFTPException> openDirAsync(final String path)
+            throws IOException {
+        return request(newRequest(PacketType.OPENDIR).putString(path))
+                .transform(new Future.Transformer<Response, RemoteDirectory, SFTPException>() {
+                    @Override
+                    public RemoteDirectory transform(Response res)
+                            throws SFTPException {
+                        return new RemoteDirectory(SFTPEngine.this, path, readHandle(res));
+                    }
+                });
+    }
+
+    public Future<Boolean, SFTPException> setAttributesAsync(String path, FileAttributes attrs)
+            throws IOException {
+        return request(newRequest(PacketType.SETSTAT).putString(path).putFileAttributes(attrs))
+                .transform(Response.STATUS_OK);
+    }
+
+    public Future<String, SFTPException> readLinkAsync(String path)
+            throws IOException {
+        if (operativeVersion < 3)
+            throw new SFTPException("READLINK is not supported in SFTPv" + operativeVersion);
+        return request(newRequest(PacketType.READLINK).putString(path)).transform(SINGLE_NAME);
+    }
+
+    public Future<Boolean, SFTPException> makeDirAsync(String path, FileAttributes attrs)
+            throws IOException {
+        return request(newRequest(PacketType.MKDIR).putString(path).putFileAttributes(attrs))
+                .transform(Response.STATUS_OK);
+    }
+
+    public Future<Boolean, SFTPException> symlinkAsync(String linkpath, String targetpath)
+            throws IOException {
+        if (operativeVersion < 3)
+            throw new SFTPException("SYMLINK is not supported in SFTPv" + operativeVersion);
+        return request(newRequest(PacketType.SYMLINK).putString(linkpath).putString(targetpath))
+                .transform(Response.STATUS_OK);
+    }
+
+    public Future<Boolean, SFTPException> removeAsync(String filename)
+            throws IOException {
+        return request(newRequest(PacketType.REMOVE).putString(filename)).transform(Response.STATUS_OK);
+    }
+
+    public Future<Boolean, SFTPException> removeDirAsync(String path)
+            throws IOException {
+        return request(newRequest(PacketType.RMDIR).putString(path)).transform(Response.STATUS_OK);
+    }
+
+    public Future<FileAttributes, SFTPException> statAsync(String path)
+            throws IOException {
+        return statAsync(PacketType.STAT, path);
+    }
+
+    public Future<FileAttributes, SFTPException> lstatAsync(String path)
+            throws IOException {
+        return statAsync(PacketType.LSTAT, path);
+    }
+
+    public Future<Boolean, SFTPException> renameAsync(String oldPath, String newPath)
+            throws IOException {
         if (operativeVersion < 1)
             throw new SFTPException("RENAME is not supported in SFTPv" + operativeVersion);
-        doRequest(
-                newRequest(PacketType.RENAME).putString(oldPath).putString(newPath)
-        ).ensureStatusPacketIsOK();
+        return request(newRequest(PacketType.RENAME).putString(oldPath).putString(newPath))
+                .transform(Response.STATUS_OK);
     }
 
-    public String canonicalize(String path)
+    public Future<String, SFTPException> canonicalizeAsync(String path)
             throws IOException {
-        return readSingleName(
-                doRequest(
-                        newRequest(PacketType.REALPATH).putString(path)
-                ));
+        return request(newRequest(PacketType.REALPATH).putString(path)).transform(SINGLE_NAME);
     }
 
     public void setTimeout(int timeout) {
         this.timeout = timeout;
     }
 
+    @Override
     public int getTimeout() {
         return timeout;
     }
@@ -224,13 +299,21 @@ public class SFTPEngine
 
     protected FileAttributes stat(PacketType pt, String path)
             throws IOException {
-        return doRequest(newRequest(pt).putString(path))
-                .ensurePacketTypeIs(PacketType.ATTRS)
-                .readFileAttributes();
+        return await(statAsync(pt, path));
     }
 
-    protected static String readSingleName(Response res)
+    protected Future<FileAttributes, SFTPException> statAsync(PacketType pt, String path)
             throws IOException {
+        return request(newRequest(pt).putString(path)).transform(Response.ATTRIBUTES);
+    }
+
+    protected <V> V await(Future<V, SFTPException> future)
+            throws SFTPException {
+        return future.get(timeout, TimeUnit.SECONDS);
+    }
+
+    protected static String readSingleName(Response res)
+            throws SFTPException {
         res.ensurePacketTypeIs(PacketType.NAME);
         if (res.readInt() == 1)
             return res.readString();
@@ -238,6 +321,20 @@ public class SFTPEngine
             throw new SFTPException("Unexpected data in " + res.getType() + " packet");
     }
 
+    private static String readHandle(Response res)
+            throws SFTPException {
+        return res.ensurePacketTypeIs(PacketType.HANDLE).readString();
+    }
+
+    private static final Future.Transformer<Response, String, SFTPException> SINGLE_NAME =
+            new Future.Transformer<Response, String, SFTPException>() {
+                @Override
+                public String transform(Response res)
+                        throws SFTPException {
+                    return readSingleName(res);
+                }
+            };
+
     protected synchronized void transmit(SFTPPacket<Request> payload)
             throws IOException {
         final int len = payload.available();
@@ -20,24 +20,71 @@ import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.netling.io.StreamCopier;
 import org.netling.sftp.Response.StatusCode;
 import org.netling.xfer.AbstractFileTransfer;
 import org.netling.xfer.FileTransfer;
 import org.netling.xfer.FileTransferUtil;
+import org.netling.xfer.SerializingTransferListener;
 import org.netling.xfer.TransferListener;
 
 public class SFTPFileTransfer
         extends AbstractFileTransfer
         implements FileTransfer {
 
+    /** Transfer of a file that is not a directory, over the given engine */
+    private interface FileTask {
+
+        void transfer(SFTPEngine sftp, TransferListener listener)
+                throws IOException;
+
+    }
+
+    /** Work on a directory that has to wait for the files in it to be transferred */
+    private interface DirTask {
+
+        void finish()
+                throws IOException;
+
+    }
+
     private final SFTPEngine engine;
     private final PathHelper pathHelper;
 
+    /** Engines to spread concurrent file transfers over, starting with {@link #engine} */
+    private final List<SFTPEngine> engines = new CopyOnWriteArrayList<SFTPEngine>();
+
     private volatile FileFilter uploadFilter = defaultLocalFilter;
     private volatile RemoteResourceFilter downloadFilter = defaultRemoteFilter;
+    private volatile int maxUnconfirmedReads = RemoteFile.ReadAheadRemoteFileInputStream.DEFAULT_MAX_UNCONFIRMED_READS;
+    private volatile int maxUnconfirmedWrites = RemoteFile.RemoteFileOutputStream.DEFAULT_MAX_UNCONFIRMED_WRITES;
+    private volatile int maxConcurrentFiles = 1;
+    private volatile int maxDownloadSegments = 1;
+    private volatile long minDownloadSegmentSize = DEFAULT_MIN_DOWNLOAD_SEGMENT_SIZE;
+    private volatile int maxSegmentAttempts = DEFAULT_MAX_SEGMENT_ATTEMPTS;
+
+    public static final long DEFAULT_MIN_DOWNLOAD_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENT_ATTEMPTS = 3;
 
     private static final FileFilter defaultLocalFilter = new FileFilter() {
         @Override
@@ -56,12 +103,18 @@ public class SFTPFileTransfer
     public SFTPFileTransfer(SFTPEngine engine) {
         this.engine = engine;
         this.pathHelper = new PathHelper(engine);
+        engines.add(engine);
     }
 
     @Override
     public void upload(String source, String dest)
             throws IOException {
-        new Uploader().upload(new File(source), dest);
+        final Uploader uploader = new Uploader();
+        try {
+            uploader.upload(new File(source), dest);
+        } finally {
+            uploader.finish();
+        }
     }
 
     @Override
@@ -69,13 +122,100 @@ public class SFTPFileTransfer
             throws IOException {
         final PathComponents pathComponents = pathHelper.getComponents(source);
         final FileAttributes attributes = engine.stat(source);
-        new Downloader().download(new RemoteResourceInfo(pathComponents, attributes), new File(dest));
+        final Downloader downloader = new Downloader();
+        try {
+            downloader.download(new RemoteResourceInfo(pathComponents, attributes), new File(dest));
+        } finally {
+            downloader.finish();
+        }
+    }
+
+    /**
+     * Sets how many files are transferred at a time when transferring a directory tree; 1 transfers one file after
+     * another. The whole tree is walked up front, creating each directory before the files in it are queued for
+     * transfer, so that files of different directories are transferred concurrently too; the attributes of the
+     * directories are set once all files have been transferred. The {@link #getTransferListener() transfer listener} is
+     * told of one file at a time, in the order of the walk, see {@link SerializingTransferListener}.
+     */
+    public void setMaxConcurrentFiles(int maxConcurrentFiles) {
+        this.maxConcurrentFiles = maxConcurrentFiles;
+    }
+
+    public int getMaxConcurrentFiles() {
+        return maxConcurrentFiles;
+    }
+
+    /**
+     * Sets into how many segments a file may be split for downloading it; the segments are fetched concurrently, and
+     * spread over the {@link #addEngine engines}. 1 downloads files in one go.
+     */
+    public void setMaxDownloadSegments(int maxDownloadSegments) {
+        this.maxDownloadSegments = maxDownloadSegments;
+    }
+
+    public int getMaxDownloadSegments() {
+        return maxDownloadSegments;
+    }
+
+    /** Sets the size below which a segment is not split off; so that only large files are downloaded in segments. */
+    public void setMinDownloadSegmentSize(long minDownloadSegmentSize) {
+        this.minDownloadSegmentSize = minDownloadSegmentSize;
+    }
+
+    public long getMinDownloadSegmentSize() {
+        return minDownloadSegmentSize;
+    }
+
+    /**
+     * Sets how many times the download of a segment is attempted; each further attempt resumes where the failed one
+     * left off, using the next engine.
+     */
+    public void setMaxSegmentAttempts(int maxSegmentAttempts) {
+        this.maxSegmentAttempts = maxSegmentAttempts;
+    }
+
+    public int getMaxSegmentAttempts() {
+        return maxSegmentAttempts;
+    }
+
+    /**
+     * Adds an engine to spread concurrently transferred files and download segments over, in turn with the others;
+     * running over another SFTP subsystem channel of the same connection, so that they do not all share one channel's
+     * window, or over another connection to make use of several TCP flows. Directories are always walked using the
+     * engine this instance was created with.
+     */
+    public void addEngine(SFTPEngine engine) {
+        engines.add(engine);
     }
 
     public void setUploadFilter(FileFilter uploadFilter) {
         this.uploadFilter = (this.uploadFilter == null) ? defaultLocalFilter : uploadFilter;
     }
 
+    /**
+     * Sets how many {@code READ} requests a download keeps outstanding; 1 waits for each response before asking for
+     * more data.
+     */
+    public void setMaxUnconfirmedReads(int maxUnconfirmedReads) {
+        this.maxUnconfirmedReads = maxUnconfirmedReads;
+    }
+
+    public int getMaxUnconfirmedReads() {
+        return maxUnconfirmedReads;
+    }
+
+    /**
+     * Sets how many {@code WRITE} requests an upload may leave unacknowledged; 0 waits for each acknowledgement before
+     * sending more data.
+     */
+    public void setMaxUnconfirmedWrites(int maxUnconfirmedWrites) {
+        this.maxUnconfirmedWrites = maxUnconfirmedWrites;
+    }
+
+    public int getMaxUnconfirmedWrites() {
+        return maxUnconfirmedWrites;
+    }
+
     public void setDownloadFilter(RemoteResourceFilter downloadFilter) {
         this.downloadFilter = (this.downloadFilter == null) ? defaultRemoteFilter : downloadFilter;
     }
@@ -88,55 +228,207 @@ public class SFTPFileTransfer
         return downloadFilter;
     }
 
+    /** Transfers the files of a directory tree concurrently, spread over the {@link #engines} */
+    private class FileTasks {
+
+        private final SerializingTransferListener listener =
+                new SerializingTransferListener(getTransferListener());
+
+        private final List<SFTPEngine> stripes = new ArrayList<SFTPEngine>(engines);
+
+        private final ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentFiles, new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "SFTPFileTransfer-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        private final List<Future<Void>> results = new ArrayList<Future<Void>>();
+        private final List<SerializingTransferListener.FileListener> fileListeners =
+                new ArrayList<SerializingTransferListener.FileListener>();
+        private final List<DirTask> dirTasks = new ArrayList<DirTask>();
+
+        private volatile boolean failed;
+
+        /** Queues the transfer of a file; stops the walk by throwing if a queued transfer has failed already. */
+        private void submit(final FileTask task)
+                throws IOException {
+            if (failed)
+                finishAll();
+            final SFTPEngine sftp = stripes.get(results.size() % stripes.size());
+            // Created here rather than by the task, so that the listener is told of files in the order of the walk
+            final SerializingTransferListener.FileListener fileListener = listener.newFileListener();
+            fileListeners.add(fileListener);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call()
+                        throws IOException {
+                    try {
+                        task.transfer(sftp, fileListener);
+                    } catch (IOException e) {
+                        failed = true;
+                        throw e;
+                    } catch (RuntimeException e) {
+                        failed = true;
+                        throw e;
+                    } finally {
+                        fileListener.release();
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        /** Queues work on a directory to be done once all files have been transferred. */
+        private void afterFiles(DirTask task) {
+            dirTasks.add(task);
+        }
+
+        /**
+         * Waits for all queued transfers, and then finishes the directories in the order they were queued; the first
+         * failure cancels the transfers that have not started yet.
+         */
+        private void finishAll()
+                throws IOException {
+            Throwable failure = null;
+            try {
+                for (Future<Void> result : results)
+                    try {
+                        result.get();
+                    } catch (CancellationException e) {
+                        // Following an earlier failure
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                            for (Future<Void> other : results)
+                                other.cancel(false);
+                        }
+                    } catch (InterruptedException e) {
+                        for (Future<Void> other : results)
+                            other.cancel(true);
+                        throw new SFTPException(e);
+                    }
+            } finally {
+                // Files that were cancelled before starting must not hold up the others' callbacks
+                for (SerializingTransferListener.FileListener fileListener : fileListeners)
+                    fileListener.release();
+            }
+
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            else if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            else if (failure instanceof Error)
+                throw (Error) failure;
+            else if (failure != null)
+                throw new SFTPException(failure);
+
+            for (DirTask task : dirTasks)
+                task.finish();
+        }
+
+        private void shutdown() {
+            executor.shutdownNow();
+        }
+
+    }
+
+    private FileTasks newFileTasks() {
+        return maxConcurrentFiles > 1 ? new FileTasks() : null;
+    }
+
     private class Downloader {
 
-        private final TransferListener listener = getTransferListener();
+        /** Non-null when files are transferred concurrently */
+        private final FileTasks tasks = newFileTasks();
+
+        private final TransferListener listener = tasks != null ? tasks.listener : getTransferListener();
 
         private void download(final RemoteResourceInfo remote, final File local)
                 throws IOException {
-            final File adjustedFile;
+            walk(remote, local);
+            if (tasks != null)
+                tasks.finishAll();
+        }
+
+        private void walk(final RemoteResourceInfo remote, final File local)
+                throws IOException {
+            if (remote.getAttributes().getType() == FileMode.Type.DIRECTORY) {
+                listener.startedDir(remote.getName());
+                final File adjustedFile = downloadDir(remote, local);
+                listener.finishedDir();
+                if (tasks == null)
+                    copyAttributes(remote, adjustedFile);
+                else
+                    tasks.afterFiles(new DirTask() {
+                        @Override
+                        public void finish()
+                                throws IOException {
+                            copyAttributes(remote, adjustedFile);
+                        }
+                    });
+            } else if (tasks == null)
+                download(remote, local, engine, listener);
+            else
+                tasks.submit(new FileTask() {
+                    @Override
+                    public void transfer(SFTPEngine sftp, TransferListener listener)
+                            throws IOException {
+                        download(remote, local, sftp, listener);
+                    }
+                });
+        }
+
+        private void download(final RemoteResourceInfo remote, final File local, SFTPEngine sftp,
+                              TransferListener listener)
+                throws IOException {
             switch (remote.getAttributes().getType()) {
-                case DIRECTORY:
-                    listener.startedDir(remote.getName());
-                    adjustedFile = downloadDir(remote, local);
-                    listener.finishedDir();
-                    break;
                 case UNKNOWN:
                     log.warn("Server did not supply information about the type of file at `{}` " +
                              "-- assuming it is a regular file!", remote.getPath());
                 case REGULAR:
                     listener.startedFile(remote.getName(), remote.getAttributes().getSize());
-                    adjustedFile = downloadFile(remote, local);
+                    final int segments = (int) Math.min(maxDownloadSegments, remote.getAttributes().getSize()
+                                                                             / Math.max(1, minDownloadSegmentSize));
+                    final File adjustedFile = segments > 1
+                                              ? downloadSegmented(remote, local, segments, listener)
+                                              : downloadFile(remote, local, sftp, listener);
                     listener.finishedFile();
+                    copyAttributes(remote, adjustedFile);
                     break;
                 default:
                     throw new IOException(remote + " is not a regular file or directory");
             }
-            copyAttributes(remote, adjustedFile);
-
         }
 
         private File downloadDir(final RemoteResourceInfo remote, final File local)
                 throws IOException {
             final File adjusted = FileTransferUtil.getTargetDirectory(local, remote.getName());
+            final List<RemoteResourceInfo> scanned;
             final RemoteDirectory rd = engine.openDir(remote.getPath());
             try {
-                for (RemoteResourceInfo rri : rd.scan(getDownloadFilter()))
-                    download(rri, new File(adjusted.getPath(), rri.getName()));
+                scanned = rd.scan(getDownloadFilter());
             } finally {
                 rd.close();
             }
+            for (RemoteResourceInfo rri : scanned)
+                walk(rri, new File(adjusted.getPath(), rri.getName()));
             return adjusted;
         }
 
-        private File downloadFile(final RemoteResourceInfo remote, final File local)
+        private File downloadFile(final RemoteResourceInfo remote, final File local, SFTPEngine sftp,
+                                  TransferListener listener)
                 throws IOException {
             final File adjusted = FileTransferUtil.getTargetFile(local, remote.getName());
-            final RemoteFile rf = engine.open(remote.getPath());
+            final RemoteFile rf = sftp.open(remote.getPath());
             try {
                 final FileOutputStream fos = new FileOutputStream(adjusted);
                 try {
-                    StreamCopier.copy(rf.getInputStream(), fos, engine.getSubsystem()
+                    StreamCopier.copy(rf.getReadAheadInputStream(maxUnconfirmedReads), fos, sftp.getSubsystem()
                             .getLocalMaxPacketSize(), false, listener);
                 } finally {
                     fos.close();
@@ -147,6 +439,69 @@ public class SFTPFileTransfer
             return adjusted;
         }
 
+        /**
+         * Downloads a file in segments that are fetched concurrently and written to their position in the local file,
+         * which is allocated up front.
+         */
+        private File downloadSegmented(final RemoteResourceInfo remote, final File local, int count,
+                                       final TransferListener listener)
+                throws IOException {
+            final File adjusted = FileTransferUtil.getTargetFile(local, remote.getName());
+            final long size = remote.getAttributes().getSize();
+            final RandomAccessFile raf = new RandomAccessFile(adjusted, "rw");
+            final ExecutorService executor = Executors.newFixedThreadPool(count, new ThreadFactory() {
+                private final AtomicInteger threads = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "SFTPFileTransfer-" + remote.getName() + "-"
+                                                   + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            try {
+                raf.setLength(size);
+                final FileChannel channel = raf.getChannel();
+                final AtomicLong transferred = new AtomicLong();
+                // Interrupting a segment does not reliably stop it, as the interrupt may surface as an SFTPException
+                final AtomicBoolean cancelled = new AtomicBoolean();
+                final List<Future<Void>> results = new ArrayList<Future<Void>>(count);
+                final long segmentSize = (size + count - 1) / count;
+                for (int i = 0; i < count; i++) {
+                    final Segment segment = new Segment(i, i * segmentSize, Math.min((i + 1) * segmentSize, size));
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call()
+                                throws IOException {
+                            segment.download(remote, channel, transferred, cancelled, listener);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> result : results)
+                    try {
+                        result.get();
+                    } catch (ExecutionException e) {
+                        cancelled.set(true);
+                        for (Future<Void> other : results)
+                            other.cancel(true);
+                        if (e.getCause() instanceof IOException)
+                            throw (IOException) e.getCause();
+                        throw new SFTPException(e.getCause());
+                    } catch (InterruptedException e) {
+                        cancelled.set(true);
+                        for (Future<Void> other : results)
+                            other.cancel(true);
+                        throw new SFTPException(e);
+                    }
+            } finally {
+                executor.shutdownNow();
+                raf.close();
+            }
+            return adjusted;
+        }
+
         private void copyAttributes(final RemoteResourceInfo remote, final File local)
                 throws IOException {
             final FileAttributes attrs = remote.getAttributes();
@@ -157,47 +512,151 @@ public class SFTPFileTransfer
             }
         }
 
+        private void finish() {
+            if (tasks != null)
+                tasks.shutdown();
+        }
+
+    }
+
+    /** Range of a file that is downloaded on its own */
+    private class Segment {
+
+        private final int index;
+        /** Offset up to which the segment has been written to the local file */
+        private long position;
+        private final long end;
+
+        private Segment(int index, long start, long end) {
+            this.index = index;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Downloads the rest of the segment; if an attempt fails, the next one resumes from where it left off, using
+         * the next engine. Stops once {@code cancelled} is set.
+         */
+        private void download(RemoteResourceInfo remote, FileChannel channel, AtomicLong transferred,
+                              AtomicBoolean cancelled, TransferListener listener)
+                throws IOException {
+            for (int attempt = 1; ; attempt++) {
+                final SFTPEngine sftp = engines.get((index + attempt - 1) % engines.size());
+                try {
+                    attempt(remote, sftp, channel, transferred, cancelled, listener);
+                    return;
+                } catch (IOException e) {
+                    if (attempt >= maxSegmentAttempts || cancelled.get())
+                        throw e;
+                    log.warn("Segment {} of `{}` failed at offset {}, resuming: {}",
+                             new Object[] { index, remote.getPath(), position, e.toString() });
+                }
+            }
+        }
+
+        private void attempt(RemoteResourceInfo remote, SFTPEngine sftp, FileChannel channel, AtomicLong transferred,
+                             AtomicBoolean cancelled, TransferListener listener)
+                throws IOException {
+            final RemoteFile rf = sftp.open(remote.getPath());
+            try {
+                final InputStream in = rf.new ReadAheadRemoteFileInputStream(
+                        maxUnconfirmedReads, RemoteFile.ReadAheadRemoteFileInputStream.DEFAULT_CHUNK_SIZE, position,
+                        end - position);
+                final byte[] buf = new byte[sftp.getSubsystem().getLocalMaxPacketSize()];
+                int len;
+                while (position < end && (len = in.read(buf)) != -1) {
+                    if (cancelled.get())
+                        throw new InterruptedIOException("Download of `" + remote.getPath() + "` was cancelled");
+                    final ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+                    while (bb.hasRemaining())
+                        position += channel.write(bb, position);
+                    // Added under the lock, so that the listener sees progress in order
+                    synchronized (listener) {
+                        listener.reportProgress(transferred.addAndGet(len));
+                    }
+                }
+                if (position < end)
+                    throw new SFTPException("File ended at " + position + " while downloading up to " + end);
+            } finally {
+                rf.close();
+            }
+        }
+
     }
 
     private class Uploader {
 
-        private final TransferListener listener = getTransferListener();
+        /** Non-null when files are transferred concurrently */
+        private final FileTasks tasks = newFileTasks();
+
+        private final TransferListener listener = tasks != null ? tasks.listener : getTransferListener();
 
         private void upload(File local, String remote)
                 throws IOException {
-            final String adjustedPath;
+            walk(local, remote);
+            if (tasks != null)
+                tasks.finishAll();
+        }
+
+        private void walk(final File local, final String remote)
+                throws IOException {
             if (local.isDirectory()) {
                 listener.startedDir(local.getName());
-                adjustedPath = uploadDir(local, remote);
+                final String adjustedPath = uploadDir(local, remote);
                 listener.finishedDir();
-            } else if (local.isFile()) {
+                if (tasks == null)
+                    engine.setAttributes(adjustedPath, getAttributes(local));
+                else
+                    tasks.afterFiles(new DirTask() {
+                        @Override
+                        public void finish()
+                                throws IOException {
+                            engine.setAttributes(adjustedPath, getAttributes(local));
+                        }
+                    });
+            } else if (tasks == null)
+                upload(local, remote, engine, listener);
+            else
+                tasks.submit(new FileTask() {
+                    @Override
+                    public void transfer(SFTPEngine sftp, TransferListener listener)
+                            throws IOException {
+                        upload(local, remote, sftp, listener);
+                    }
+                });
+        }
+
+        private void upload(File local, String remote, SFTPEngine sftp, TransferListener listener)
+                throws IOException {
+            if (local.isFile()) {
                 listener.startedFile(local.getName(), local.length());
-                adjustedPath = uploadFile(local, remote);
+                final String adjustedPath = uploadFile(local, remote, sftp, listener);
                 listener.finishedFile();
+                sftp.setAttributes(adjustedPath, getAttributes(local));
             } else
                 throw new IOException(local + " is not a file or directory");
-            engine.setAttributes(adjustedPath, getAttributes(local));
         }
 
         private String uploadDir(File local, String remote)
                 throws IOException {
             final String adjusted = prepareDir(local, remote);
             for (File f : local.listFiles(getUploadFilter()))
-                upload(f, adjusted);
+                walk(f, adjusted);
             return adjusted;
         }
 
-        private String uploadFile(File local, String remote)
+        private String uploadFile(File local, String remote, SFTPEngine sftp, TransferListener listener)
                 throws IOException {
-            final String adjusted = prepareFile(local, remote);
-            final RemoteFile rf = engine.open(adjusted, EnumSet.of(OpenMode.WRITE,
-                                                                   OpenMode.CREAT,
-                                                                   OpenMode.TRUNC));
+            final String adjusted = prepareFile(local, remote, sftp);
+            final RemoteFile rf = sftp.open(adjusted, EnumSet.of(OpenMode.WRITE,
+                                                                 OpenMode.CREAT,
+                                                                 OpenMode.TRUNC));
             try {
                 final FileInputStream fis = new FileInputStream(local);
                 try {
-                    final int bufSize = engine.getSubsystem().getRemoteMaxPacketSize() - rf.getOutgoingPacketOverhead();
-                    StreamCopier.copy(fis, rf.getOutputStream(), bufSize, false, listener);
+                    final int bufSize = sftp.getSubsystem().getRemoteMaxPacketSize() - rf.getOutgoingPacketOverhead();
+                    // Flushing at the end waits for all writes to be acknowledged
+                    StreamCopier.copy(fis, rf.getOutputStream(maxUnconfirmedWrites), bufSize, false, listener);
                 } finally {
                     fis.close();
                 }
@@ -233,11 +692,11 @@ public class SFTPFileTransfer
                 throw new IOException(attrs.getMode().getType() + " file already exists at " + remote);
         }
 
-        private String prepareFile(File local, String remote)
+        private String prepareFile(File local, String remote, SFTPEngine sftp)
                 throws IOException {
             final FileAttributes attrs;
             try {
-                attrs = engine.stat(remote);
+                attrs = sftp.stat(remote);
             } catch (SFTPException e) {
                 if (e.getStatusCode() == StatusCode.NO_SUCH_FILE) {
                     log.debug("probeFile: {} does not exist", remote);
@@ -264,6 +723,11 @@ public class SFTPFileTransfer
             return builder.build();
         }
 
+        private void finish() {
+            if (tasks != null)
+                tasks.shutdown();
+        }
+
     }
 
 }
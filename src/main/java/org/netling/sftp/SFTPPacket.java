@@ -16,6 +16,7 @@
 package org.netling.sftp;
 
 import org.netling.ssh.common.Buffer;
+import org.netling.ssh.common.BufferPool;
 
 public class SFTPPacket<T extends SFTPPacket<T>>
         extends Buffer<T> {
@@ -33,6 +34,11 @@ public class SFTPPacket<T extends SFTPPacket<T>>
         putByte(pt.toByte());
     }
 
+    public SFTPPacket(PacketType pt, BufferPool pool) {
+        super(DEFAULT_SIZE, pool);
+        putByte(pt.toByte());
+    }
+
     public FileAttributes readFileAttributes() {
         final FileAttributes.Builder builder = new FileAttributes.Builder();
         final int mask = readInt();
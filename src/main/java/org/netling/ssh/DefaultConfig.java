@@ -36,6 +36,8 @@
 
 package org.netling.ssh;
 
+import java.security.GeneralSecurityException;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -47,20 +49,30 @@ import org.netling.ssh.signature.SignatureDSA;
 import org.netling.ssh.signature.SignatureRSA;
 import org.netling.ssh.transport.cipher.AES128CBC;
 import org.netling.ssh.transport.cipher.AES128CTR;
+import org.netling.ssh.transport.cipher.AES128GCM;
 import org.netling.ssh.transport.cipher.AES192CBC;
 import org.netling.ssh.transport.cipher.AES192CTR;
 import org.netling.ssh.transport.cipher.AES256CBC;
 import org.netling.ssh.transport.cipher.AES256CTR;
+import org.netling.ssh.transport.cipher.AES256GCM;
 import org.netling.ssh.transport.cipher.BlowfishCBC;
+import org.netling.ssh.transport.cipher.ChachaPolyCipher;
 import org.netling.ssh.transport.cipher.Cipher;
 import org.netling.ssh.transport.cipher.TripleDESCBC;
 import org.netling.ssh.transport.compression.NoneCompression;
+import org.netling.ssh.transport.kex.Curve25519SHA256;
 import org.netling.ssh.transport.kex.DHG1;
 import org.netling.ssh.transport.kex.DHG14;
+import org.netling.ssh.transport.kex.ECDHNistP256;
+import org.netling.ssh.transport.kex.KeyExchange;
 import org.netling.ssh.transport.mac.HMACMD5;
 import org.netling.ssh.transport.mac.HMACMD596;
 import org.netling.ssh.transport.mac.HMACSHA1;
 import org.netling.ssh.transport.mac.HMACSHA196;
+import org.netling.ssh.transport.mac.HMACSHA2256;
+import org.netling.ssh.transport.mac.HMACSHA2256ETM;
+import org.netling.ssh.transport.mac.HMACSHA2512;
+import org.netling.ssh.transport.mac.HMACSHA2512ETM;
 import org.netling.ssh.transport.random.BouncyCastleRandom;
 import org.netling.ssh.transport.random.JCERandom;
 import org.netling.ssh.transport.random.SingletonRandomFactory;
@@ -73,11 +85,13 @@ import org.slf4j.LoggerFactory;
  * A {@link Config} that is initialized as follows. Items marked with an asterisk are added to the config only if
  * BouncyCastle is in the classpath.
  * <p/>
- * <ul> <li>{@link ConfigImpl#setKeyExchangeFactories Key exchange}: {@link DHG14}*, {@link DHG1}</li> <li>{@link
- * ConfigImpl#setCipherFactories Ciphers} [1]: {@link AES128CTR}, {@link AES192CTR}, {@link AES256CTR}, {@link
- * AES128CBC}, {@link AES192CBC}, {@link AES256CBC}, {@link AES192CBC}, {@link TripleDESCBC}, {@link BlowfishCBC}</li>
- * <li>{@link ConfigImpl#setMACFactories MAC}: {@link HMACSHA1}, {@link HMACSHA196}, {@link HMACMD5}, {@link
- * HMACMD596}</li> <li>{@link ConfigImpl#setCompressionFactories Compression}: {@link NoneCompression}</li> <li>{@link
+ * <ul> <li>{@link ConfigImpl#setKeyExchangeFactories Key exchange}: {@link Curve25519SHA256}*, {@link ECDHNistP256}[3],
+ * {@link DHG14}*, {@link DHG1}</li> <li>{@link
+ * ConfigImpl#setCipherFactories Ciphers} [1]: {@link AES128GCM}[2], {@link AES256GCM}[2], {@link ChachaPolyCipher}*,
+ * {@link AES128CTR}, {@link AES192CTR}, {@link AES256CTR}, {@link AES128CBC}, {@link AES192CBC}, {@link AES256CBC},
+ * {@link AES192CBC}, {@link TripleDESCBC}, {@link BlowfishCBC}</li>
+ * <li>{@link ConfigImpl#setMACFactories MAC}: {@link HMACSHA2256ETM}, {@link HMACSHA2512ETM}, {@link HMACSHA2256},
+ * {@link HMACSHA2512}, {@link HMACSHA1}, {@link HMACSHA196}, {@link HMACMD5}, {@link HMACMD596}</li> <li>{@link ConfigImpl#setCompressionFactories Compression}: {@link NoneCompression}</li> <li>{@link
  * ConfigImpl#setSignatureFactories Signature}: {@link SignatureRSA}, {@link SignatureDSA}</li> <li>{@link
  * ConfigImpl#setRandomFactory PRNG}: {@link BouncyCastleRandom}* or {@link JCERandom}</li> <li>{@link
  * ConfigImpl#setFileKeyProviderFactories Key file support}: {@link PKCS8KeyFile}*, {@link OpenSSHKeyFile}*</li>
@@ -85,6 +99,10 @@ import org.slf4j.LoggerFactory;
  * <p/>
  * [1] It is worth noting that Sun's JRE does not have the unlimited cryptography extension enabled by default. This
  * prevents using ciphers with strength greater than 128.
+ * <p/>
+ * [2] Only on Java 7 or later.
+ * <p/>
+ * [3] Only if the JCE provider supports elliptic curves, as is the case from Java 7 on or with BouncyCastle.
  */
 public class DefaultConfig
         extends ConfigImpl {
@@ -99,17 +117,29 @@ public class DefaultConfig
         initKeyExchangeFactories(bouncyCastleRegistered);
         initRandomFactory(bouncyCastleRegistered);
         initFileKeyProviderFactories(bouncyCastleRegistered);
-        initCipherFactories();
+        initCipherFactories(bouncyCastleRegistered);
         initCompressionFactories();
         initMACFactories();
         initSignatureFactories();
     }
 
     protected void initKeyExchangeFactories(boolean bouncyCastleRegistered) {
+        final List<Factory.Named<KeyExchange>> avail = new LinkedList<Factory.Named<KeyExchange>>();
+        if (bouncyCastleRegistered) {
+            avail.add(new Curve25519SHA256.Factory());
+            avail.add(new Curve25519SHA256.FactoryLibSSH());
+        }
+        try {
+            SecurityUtils.getKeyPairGenerator("EC").initialize(new ECGenParameterSpec("secp256r1"));
+            SecurityUtils.getKeyAgreement("ECDH");
+            avail.add(new ECDHNistP256.Factory());
+        } catch (GeneralSecurityException e) {
+            log.warn("Disabling ecdh-sha2-nistp256: elliptic curve support not available ({})", e.toString());
+        }
         if (bouncyCastleRegistered)
-            setKeyExchangeFactories(new DHG14.Factory(), new DHG1.Factory());
-        else
-            setKeyExchangeFactories(new DHG1.Factory());
+            avail.add(new DHG14.Factory());
+        avail.add(new DHG1.Factory());
+        setKeyExchangeFactories(avail);
     }
 
     protected void initRandomFactory(boolean bouncyCastleRegistered) {
@@ -123,8 +153,10 @@ public class DefaultConfig
     }
 
 
-    protected void initCipherFactories() {
+    protected void initCipherFactories(boolean bouncyCastleRegistered) {
         List<Factory.Named<Cipher>> avail = new LinkedList<Factory.Named<Cipher>>(Arrays.<Factory.Named<Cipher>>asList(
+                new AES128GCM.Factory(),
+                new AES256GCM.Factory(),
                 new AES128CTR.Factory(),
                 new AES192CTR.Factory(),
                 new AES256CTR.Factory(),
@@ -133,6 +165,8 @@ public class DefaultConfig
                 new AES256CBC.Factory(),
                 new TripleDESCBC.Factory(),
                 new BlowfishCBC.Factory()));
+        if (bouncyCastleRegistered)
+            avail.add(2, new ChachaPolyCipher.Factory());
 
         boolean warn = false;
         // Ref. https://issues.apache.org/jira/browse/SSHD-24
@@ -147,6 +181,9 @@ public class DefaultConfig
             } catch (Exception e) {
                 warn = true;
                 i.remove();
+            } catch (LinkageError e) {
+                // Runtime lacks an API the cipher needs
+                i.remove();
             }
         }
         if (warn)
@@ -160,8 +197,9 @@ public class DefaultConfig
     }
 
     protected void initMACFactories() {
-        setMACFactories(new HMACSHA1.Factory(), new HMACSHA196.Factory(), new HMACMD5.Factory(),
-                        new HMACMD596.Factory());
+        setMACFactories(new HMACSHA2256ETM.Factory(), new HMACSHA2512ETM.Factory(), new HMACSHA2256.Factory(),
+                        new HMACSHA2512.Factory(), new HMACSHA1.Factory(), new HMACSHA196.Factory(),
+                        new HMACMD5.Factory(), new HMACMD596.Factory());
     }
 
     protected void initCompressionFactories() {
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.netling.ssh.transport.SelectorPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects {@link SSHClient} instances to many hosts at once. Connection establishment with a single host is a chain of
+ * round trips (TCP handshake, identification, key exchange, authentication) during which the calling thread mostly
+ * waits; this class runs those chains for different hosts concurrently on a bounded number of threads, and returns a
+ * {@link Future} per host.
+ * <p/>
+ * All clients share one {@link Config}, so that the algorithm factories are only set up once, and optionally one
+ * {@link SelectorPool}, so that the connections do not need a reader thread each once established. Per-host setup such
+ * as host key verification and the authentication itself is left to a {@link Handler}.
+ * <p/>
+ * <em>Example:</em>
+ * <p/>
+ * <pre>
+ * final ParallelConnector connector = new ParallelConnector(new DefaultConfig(), 64, selectorPool);
+ * try {
+ *     final Map&lt;String, Future&lt;SSHClient&gt;&gt; clients = connector.connectAll(hosts, 22, handler);
+ *     for (Map.Entry&lt;String, Future&lt;SSHClient&gt;&gt; entry : clients.entrySet()) {
+ *         try {
+ *             final SSHClient client = entry.getValue().get();
+ *             ...
+ *         } catch (ExecutionException e) {
+ *             // connecting to entry.getKey() failed; the client has been disconnected
+ *         }
+ *     }
+ * } finally {
+ *     connector.close();
+ * }
+ * </pre>
+ */
+public class ParallelConnector
+        implements Closeable {
+
+    /** Callbacks for preparing each client and authenticating it; called from the connecting thread. */
+    public interface Handler {
+
+        /**
+         * Called before {@code client} connects to {@code hostname}, e.g. to add host key verifiers.
+         *
+         * @throws IOException to abandon connecting to this host
+         */
+        void configure(SSHClient client, String hostname)
+                throws IOException;
+
+        /**
+         * Called once {@code client} has connected to {@code hostname} and completed key exchange, to authenticate.
+         *
+         * @throws IOException if authentication failed
+         */
+        void authenticate(SSHClient client, String hostname)
+                throws IOException;
+
+    }
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Config config;
+    private final ExecutorService executor;
+    private final SelectorPool selectorPool;
+    private final boolean ownExecutor;
+
+    /**
+     * Creates a connector with its own pool of {@code parallelism} threads, which is shut down when this connector is
+     * {@link #close() closed}.
+     *
+     * @param config       configuration shared by all clients
+     * @param parallelism  maximum number of hosts to connect to at the same time
+     * @param selectorPool selector pool to service the connections with, or {@code null} for a reader thread per
+     *                     connection
+     */
+    public ParallelConnector(Config config, int parallelism, SelectorPool selectorPool) {
+        this(config, Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final int instance = instances.incrementAndGet();
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "connector-" + instance + "-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        }), selectorPool, true);
+    }
+
+    /**
+     * Creates a connector which runs on the specified executor. Parallelism is bounded by the executor, which is not
+     * shut down by this connector.
+     *
+     * @param config       configuration shared by all clients
+     * @param executor     executor to connect on
+     * @param selectorPool selector pool to service the connections with, or {@code null} for a reader thread per
+     *                     connection
+     */
+    public ParallelConnector(Config config, ExecutorService executor, SelectorPool selectorPool) {
+        this(config, executor, selectorPool, false);
+    }
+
+    private ParallelConnector(Config config, ExecutorService executor, SelectorPool selectorPool,
+                              boolean ownExecutor) {
+        this.config = config;
+        this.executor = executor;
+        this.selectorPool = selectorPool;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Starts connecting to {@code hostname} on {@code port}. If any step fails, the client is disconnected and the
+     * returned future completes with the exception.
+     *
+     * @param hostname host to connect to
+     * @param port     port number
+     * @param handler  handler to configure and authenticate the client
+     *
+     * @return a future for the connected and authenticated client
+     */
+    public Future<SSHClient> connect(final String hostname, final int port, final Handler handler) {
+        return executor.submit(new Callable<SSHClient>() {
+            @Override
+            public SSHClient call()
+                    throws IOException {
+                final SSHClient client = newClient();
+                boolean done = false;
+                try {
+                    handler.configure(client, hostname);
+                    client.connect(hostname, port);
+                    handler.authenticate(client, hostname);
+                    done = true;
+                    return client;
+                } finally {
+                    if (!done)
+                        disconnect(client, hostname);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts connecting to each of {@code hostnames} on {@code port}.
+     *
+     * @param hostnames hosts to connect to
+     * @param port      port number
+     * @param handler   handler to configure and authenticate the clients
+     *
+     * @return a future for each host, in iteration order of {@code hostnames}
+     *
+     * @see #connect(String, int, Handler)
+     */
+    public Map<String, Future<SSHClient>> connectAll(Iterable<String> hostnames, int port, Handler handler) {
+        final Map<String, Future<SSHClient>> futures = new LinkedHashMap<String, Future<SSHClient>>();
+        for (String hostname : hostnames)
+            futures.put(hostname, connect(hostname, port, handler));
+        return futures;
+    }
+
+    /** Shuts down the executor if it was created by this connector. Connections already established are unaffected. */
+    @Override
+    public void close() {
+        if (ownExecutor)
+            executor.shutdown();
+    }
+
+    /** @return a new client using the shared configuration and selector pool */
+    protected SSHClient newClient() {
+        final SSHClient client = new SSHClient(config);
+        if (selectorPool != null)
+            client.useSelectorPool(selectorPool);
+        return client;
+    }
+
+    private void disconnect(SSHClient client, String hostname) {
+        try {
+            if (client.isConnected())
+                client.disconnect();
+        } catch (IOException e) {
+            log.debug("Error disconnecting from {}: {}", hostname, e.toString());
+        }
+    }
+
+}
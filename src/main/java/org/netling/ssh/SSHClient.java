@@ -19,13 +19,18 @@ package org.netling.ssh;
 import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.security.KeyPair;
 import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.netling.ChannelSocketFactory;
 import org.netling.SocketClient;
+import org.netling.concurrent.Future;
 import org.netling.ssh.common.DisconnectReason;
 import org.netling.ssh.common.Factory;
 import org.netling.ssh.common.SSHException;
@@ -34,6 +39,7 @@ import org.netling.ssh.connection.Connection;
 import org.netling.ssh.connection.ConnectionException;
 import org.netling.ssh.connection.ConnectionImpl;
 import org.netling.ssh.connection.channel.direct.LocalPortForwarder;
+import org.netling.ssh.connection.channel.direct.NioLocalPortForwarder;
 import org.netling.ssh.connection.channel.direct.Session;
 import org.netling.ssh.connection.channel.direct.SessionChannel;
 import org.netling.ssh.connection.channel.direct.SessionFactory;
@@ -42,6 +48,7 @@ import org.netling.ssh.connection.channel.forwarded.RemotePortForwarder;
 import org.netling.ssh.connection.channel.forwarded.RemotePortForwarder.ForwardedTCPIPChannel;
 import org.netling.ssh.connection.channel.forwarded.X11Forwarder;
 import org.netling.ssh.connection.channel.forwarded.X11Forwarder.X11Channel;
+import org.netling.ssh.transport.SelectorPool;
 import org.netling.ssh.transport.Transport;
 import org.netling.ssh.transport.TransportException;
 import org.netling.ssh.transport.TransportImpl;
@@ -125,6 +132,9 @@ public class SSHClient
     /** {@code ssh-connection} service */
     protected final Connection conn;
 
+    /** If set, the connection is serviced by this pool's selector threads rather than a dedicated reader thread */
+    private volatile SelectorPool selectorPool;
+
     /** Default constructor. Initializes this object using {@link DefaultConfig}. */
     public SSHClient() {
         this(new DefaultConfig());
@@ -555,6 +565,24 @@ public class SSHClient
         return new LocalPortForwarder(getServerSocketFactory(), conn, address, host, port);
     }
 
+    /**
+     * Create a {@link NioLocalPortForwarder} that will listen on {@code address} and forward incoming connections to
+     * the server; which will further forward them to {@code host:port}. Unlike a {@link LocalPortForwarder}, it services
+     * all forwarded connections from the thread that calls its {@link NioLocalPortForwarder#listen() listen()} method.
+     *
+     * @param address defines where the {@link NioLocalPortForwarder} listens
+     * @param host    hostname to which the server will forward
+     * @param port    the port at {@code hostname} to which the server wil forward
+     *
+     * @return a {@link NioLocalPortForwarder}
+     *
+     * @throws IOException if there is an error opening a local server socket
+     */
+    public NioLocalPortForwarder newNioLocalPortForwarder(SocketAddress address, String host, int port)
+            throws IOException {
+        return new NioLocalPortForwarder(conn, address, host, port);
+    }
+
     /**
      * Register a {@code listener} for handling forwarded X11 channels. Without having done this, an incoming X11
      * forwarding will be summarily rejected.
@@ -595,6 +623,56 @@ public class SSHClient
         return sess;
     }
 
+    /**
+     * Opens {@code count} {@code session} channels at once. The open requests are sent back to back, so this takes
+     * about one round trip regardless of {@code count}; requests on the returned sessions can likewise be sent without
+     * waiting, e.g. with {@link Session#execAsync}.
+     *
+     * @param count number of sessions to open
+     *
+     * @return the opened sessions
+     *
+     * @throws ConnectionException if any session could not be opened; those that were opened are closed
+     * @throws TransportException  if there is an error at the transport layer
+     */
+    public List<Session> startSessions(int count)
+            throws ConnectionException, TransportException {
+        assert isConnected() && isAuthenticated();
+        final List<SessionChannel> sessions = new ArrayList<SessionChannel>(count);
+        for (int i = 0; i < count; i++)
+            sessions.add(new SessionChannel(conn));
+        final List<Future<Boolean, ConnectionException>> opened = conn.openAll(sessions);
+        boolean done = false;
+        try {
+            for (Future<Boolean, ConnectionException> future : opened)
+                future.get(conn.getTimeout(), TimeUnit.SECONDS);
+            done = true;
+        } finally {
+            if (!done)
+                for (SessionChannel sess : sessions)
+                    if (sess.isOpen())
+                        try {
+                            sess.close();
+                        } catch (IOException e) {
+                            log.debug("Error closing {}: {}", sess, e.toString());
+                        }
+        }
+        return new ArrayList<Session>(sessions);
+    }
+
+    /**
+     * Makes the I/O of this client's connection non-blocking and serviced by a thread of the specified {@link
+     * SelectorPool}, which may be shared with any number of other clients. This has to be done before connecting, and
+     * replaces the {@link #setSocketFactory socket factory} with a {@link ChannelSocketFactory}.
+     *
+     * @param pool the selector pool, or {@code null} to revert to a dedicated reader thread
+     */
+    public void useSelectorPool(SelectorPool pool) {
+        assert !isConnected();
+        this.selectorPool = pool;
+        setSocketFactory(pool == null ? null : new ChannelSocketFactory());
+    }
+
     /**
      * Adds {@code zlib} compression to preferred compression algorithms. There is no guarantee that it will be
      * successfully negotiatied.
@@ -620,7 +698,11 @@ public class SSHClient
     protected void onConnect()
             throws IOException {
         super.onConnect();
-        trans.init(getRemoteHostname(), getRemotePort(), getInputStream(), getOutputStream());
+        final SocketChannel channel = socket.getChannel();
+        if (selectorPool != null && channel != null)
+            trans.init(getRemoteHostname(), getRemotePort(), channel, selectorPool);
+        else
+            trans.init(getRemoteHostname(), getRemotePort(), getInputStream(), getOutputStream());
         doKex();
     }
 
@@ -68,6 +68,10 @@ public class Buffer<T extends Buffer<T>> {
         public PlainBuffer(int size) {
             super(size);
         }
+
+        public PlainBuffer(int size, BufferPool pool) {
+            super(size, pool);
+        }
     }
 
     /** The default size for a {@code Buffer} (256 bytes) */
@@ -84,6 +88,9 @@ public class Buffer<T extends Buffer<T>> {
     protected int rpos;
     protected int wpos;
 
+    /** Pool which {@link #data} was obtained from, if any */
+    private BufferPool pool;
+
     /** @see #DEFAULT_SIZE */
     public Buffer() {
         this(DEFAULT_SIZE);
@@ -102,6 +109,18 @@ public class Buffer<T extends Buffer<T>> {
         this(new byte[getNextPowerOf2(size)], false);
     }
 
+    /**
+     * Constructs a buffer backed by an array from the specified pool, which it must be {@link #release() released} to
+     * once no longer needed.
+     *
+     * @param size initial capacity
+     * @param pool pool to obtain the backing array from, or {@code null} for a buffer which is not pooled
+     */
+    public Buffer(int size, BufferPool pool) {
+        this(pool != null ? pool.obtain(size) : new byte[getNextPowerOf2(size)], false);
+        this.pool = pool;
+    }
+
     private Buffer(byte[] data, boolean read) {
         this.data = data;
         rpos = 0;
@@ -147,12 +166,26 @@ public class Buffer<T extends Buffer<T>> {
     public void ensureCapacity(int capacity) {
         if (data.length - wpos < capacity) {
             int cw = wpos + capacity;
-            byte[] tmp = new byte[getNextPowerOf2(cw)];
+            byte[] tmp = pool != null ? pool.obtain(cw) : new byte[getNextPowerOf2(cw)];
             System.arraycopy(data, 0, tmp, 0, data.length);
+            if (pool != null)
+                pool.recycle(data);
             data = tmp;
         }
     }
 
+    /**
+     * Returns the backing array to the pool this buffer was constructed with. The buffer must not be used after it has
+     * been released. Does nothing for a buffer which is not pooled, so it is always safe to call once done with a
+     * buffer.
+     */
+    public void release() {
+        if (pool != null && data != null) {
+            pool.recycle(data);
+            data = null;
+        }
+    }
+
     /** Compact this {@link SSHPacket} */
     public void compact() {
         System.err.println("COMPACTING");
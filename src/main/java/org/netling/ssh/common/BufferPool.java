@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A thread-safe pool of byte arrays backing {@link Buffer buffers}, organised in power-of-2 size classes (the same
+ * sizes {@code Buffer} allocates anyway). Each size class retains a bounded number of arrays; arrays recycled into a
+ * full class, or larger than the largest class, are left to the garbage collector.
+ *
+ * @see Buffer#Buffer(int, BufferPool)
+ * @see Buffer#release()
+ */
+public final class BufferPool {
+
+    /** Pool shared by the library's internal users of pooled buffers */
+    public static final BufferPool SHARED = new BufferPool();
+
+    /** Smallest size class */
+    private static final int MIN_SIZE = Buffer.DEFAULT_SIZE;
+
+    /** Largest size class; enough for a maximum-length SSH packet */
+    private static final int MAX_SIZE = 512 * 1024;
+
+    private final List<BlockingQueue<byte[]>> classes = new ArrayList<BlockingQueue<byte[]>>();
+
+    /** Creates a pool retaining up to 32 arrays per size class. */
+    public BufferPool() {
+        this(32);
+    }
+
+    /**
+     * Creates a pool retaining up to {@code perClass} arrays per size class.
+     *
+     * @param perClass maximum number of arrays kept in each size class
+     */
+    public BufferPool(int perClass) {
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size <<= 1)
+            classes.add(new ArrayBlockingQueue<byte[]>(perClass));
+    }
+
+    /**
+     * Returns an array of at least {@code size} bytes, whose length is a power of 2. The contents of the array are
+     * unspecified.
+     *
+     * @param size minimum size needed
+     *
+     * @return a pooled array if one was available, else a new one
+     */
+    public byte[] obtain(int size) {
+        final int len = Buffer.getNextPowerOf2(Math.max(size, MIN_SIZE));
+        if (len <= MAX_SIZE) {
+            final byte[] b = classes.get(indexOf(len)).poll();
+            if (b != null)
+                return b;
+        }
+        return new byte[len];
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not use the array after recycling it. Arrays which were not
+     * {@link #obtain obtained} from a pool are accepted as long as their length is one of the size classes.
+     *
+     * @param b the array
+     */
+    public void recycle(byte[] b) {
+        final int len = b.length;
+        if (len >= MIN_SIZE && len <= MAX_SIZE && (len & len - 1) == 0)
+            classes.get(indexOf(len)).offer(b);
+    }
+
+    private static int indexOf(int len) {
+        return Integer.numberOfTrailingZeros(len) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+}
@@ -48,6 +48,10 @@ public class SSHPacket
         super(size);
     }
 
+    public SSHPacket(int size, BufferPool pool) {
+        super(size, pool);
+    }
+
     public SSHPacket(byte[] data) {
         super(data);
     }
@@ -64,6 +68,20 @@ public class SSHPacket
         putMessageID(msg);
     }
 
+    /**
+     * Like {@link #SSHPacket(Message)}, but the buffer is obtained from {@code pool} and should be {@link #release()
+     * released} once no longer needed, e.g. after it has been {@link org.netling.ssh.transport.Transport#write
+     * written}.
+     *
+     * @param msg  the SSH command
+     * @param pool pool to obtain the backing array from
+     */
+    public SSHPacket(Message msg, BufferPool pool) {
+        super(DEFAULT_SIZE, pool);
+        rpos = wpos = 5;
+        putMessageID(msg);
+    }
+
     public SSHPacket(SSHPacket p) {
         this.data = Arrays.copyOf(p.data, p.wpos);
         this.rpos = p.rpos;
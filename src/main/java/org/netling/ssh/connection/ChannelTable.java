@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.netling.ssh.connection.channel.Channel;
+
+/**
+ * Hands out channel IDs and maps them to attached {@link Channel channels}.
+ * <p/>
+ * IDs of channels that have been removed are handed out again, lowest first, so IDs stay small and dense on
+ * connections that open and close many channels. That allows channels to be kept in an array indexed by ID, so that
+ * {@link #get} needs neither a lock nor boxing of the ID. Allocating, attaching and removing are synchronized.
+ */
+final class ChannelTable {
+
+    /** Marks an ID that has been handed out, but whose channel is not attached */
+    private static final Object RESERVED = new Object();
+
+    private volatile AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(16);
+
+    /** Min-heap of IDs below {@link #next} that are free */
+    private int[] free = new int[16];
+    private int freeCount;
+    /** Lowest ID never handed out */
+    private int next;
+    /** Number of attached channels */
+    private int attached;
+
+    /** @return an ID for a new channel; not handed out again until {@link #remove removed} */
+    synchronized int allocate() {
+        final int id = freeCount > 0 ? pollFree() : next++;
+        ensureCapacity(id + 1);
+        slots.set(id, RESERVED);
+        return id;
+    }
+
+    /** Attaches a channel under its ID. */
+    synchronized void put(Channel chan) {
+        final int id = chan.getID();
+        ensureCapacity(id + 1);
+        if (slots.get(id) != chan) {
+            slots.set(id, chan);
+            attached++;
+        }
+    }
+
+    /**
+     * @param id channel ID
+     *
+     * @return the attached channel of that ID, or {@code null}
+     */
+    Channel get(int id) {
+        final AtomicReferenceArray<Object> s = slots;
+        if (id < 0 || id >= s.length())
+            return null;
+        final Object o = s.get(id);
+        return o == RESERVED ? null : (Channel) o;
+    }
+
+    /**
+     * Detaches a channel if attached, and frees its ID. Must be called only once per channel, as the ID may be handed
+     * out again after.
+     */
+    synchronized void remove(Channel chan) {
+        final int id = chan.getID();
+        if (id < 0 || id >= slots.length())
+            return;
+        final Object o = slots.get(id);
+        if (o == chan)
+            attached--;
+        else if (o != RESERVED)
+            return;
+        slots.set(id, null);
+        addFree(id);
+    }
+
+    synchronized boolean isEmpty() {
+        return attached == 0;
+    }
+
+    /** @return the attached channels */
+    synchronized List<Channel> values() {
+        final List<Channel> chans = new ArrayList<Channel>(attached);
+        for (int i = 0; i < next; i++) {
+            final Object o = slots.get(i);
+            if (o != null && o != RESERVED)
+                chans.add((Channel) o);
+        }
+        return chans;
+    }
+
+    /** Detaches all channels. IDs handed out so far are not handed out again. */
+    synchronized void clear() {
+        for (int i = 0; i < next; i++)
+            slots.set(i, null);
+        freeCount = 0;
+        attached = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        final AtomicReferenceArray<Object> s = slots;
+        if (capacity <= s.length())
+            return;
+        final AtomicReferenceArray<Object> grown = new AtomicReferenceArray<Object>(
+                Math.max(capacity, s.length() * 2));
+        for (int i = 0; i < s.length(); i++)
+            grown.set(i, s.get(i));
+        slots = grown;
+    }
+
+    private void addFree(int id) {
+        if (freeCount == free.length) {
+            final int[] grown = new int[free.length * 2];
+            System.arraycopy(free, 0, grown, 0, freeCount);
+            free = grown;
+        }
+        int i = freeCount++;
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (free[parent] <= id)
+                break;
+            free[i] = free[parent];
+            i = parent;
+        }
+        free[i] = id;
+    }
+
+    private int pollFree() {
+        final int min = free[0];
+        final int last = free[--freeCount];
+        int i = 0;
+        for (; ;) {
+            int child = 2 * i + 1;
+            if (child >= freeCount)
+                break;
+            if (child + 1 < freeCount && free[child + 1] < free[child])
+                child++;
+            if (last <= free[child])
+                break;
+            free[i] = free[child];
+            i = child;
+        }
+        free[i] = last;
+        return min;
+    }
+
+}
@@ -15,6 +15,8 @@
  */
 package org.netling.ssh.connection;
 
+import java.util.List;
+
 import org.netling.concurrent.Future;
 import org.netling.ssh.common.SSHPacket;
 import org.netling.ssh.connection.channel.Channel;
@@ -79,6 +81,20 @@ public interface Connection {
      */
     ForwardedChannelOpener get(String chanType);
 
+    /**
+     * Request opening all of the specified channels. The requests are sent back to back, so that opening many channels
+     * takes about one round trip rather than one each.
+     *
+     * @param channels channels to open
+     *
+     * @return a future for each channel being opened, in the same order
+     *
+     * @throws TransportException if there is an error sending the requests
+     * @see Channel.Direct#openAsync()
+     */
+    List<Future<Boolean, ConnectionException>> openAll(List<? extends Channel.Direct> channels)
+            throws TransportException;
+
     /** @return an available ID a {@link Channel} can rightfully claim. */
     int nextID();
 
@@ -134,6 +150,42 @@ public interface Connection {
      */
     void setWindowSize(int windowSize);
 
+    /**
+     * @return the size up to which the local window of a {@link Channel} may grow when it limits throughput, as on
+     *         links with a large bandwidth-delay product.
+     */
+    int getMaxWindowSize();
+
+    /**
+     * Set the size up to which the local window of a {@link Channel} may grow. A value no greater than the {@link
+     * #getWindowSize() window size} keeps windows at a fixed size.
+     *
+     * @param maxWindowSize maximum window size in bytes
+     */
+    void setMaxWindowSize(int maxWindowSize);
+
+    /** @return the interval in seconds at which the server is checked to be responding, {@code 0} if it is not */
+    int getKeepAliveInterval();
+
+    /**
+     * Set the interval at which to check that the server is still responding. A {@code keepalive@openssh.com} request
+     * is sent whenever nothing has been received for an interval.
+     *
+     * @param interval interval in seconds, {@code 0} to disable
+     */
+    void setKeepAliveInterval(int interval);
+
+    /** @return the number of keep-alive requests that may go unanswered before the connection is considered lost */
+    int getKeepAliveCountMax();
+
+    /**
+     * Set the number of keep-alive requests that may go unanswered before the connection is considered lost and is
+     * disconnected.
+     *
+     * @param countMax number of requests
+     */
+    void setKeepAliveCountMax(int countMax);
+
     /** @return the associated {@link Transport}. */
     Transport getTransport();
 
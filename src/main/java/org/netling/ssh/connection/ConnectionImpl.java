@@ -15,12 +15,14 @@
  */
 package org.netling.ssh.connection;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 import org.netling.concurrent.Future;
 import org.netling.concurrent.FutureUtils;
@@ -51,15 +53,16 @@ public class ConnectionImpl
 
     private final Object internalSynchronizer = new Object();
 
-    private final AtomicInteger nextID = new AtomicInteger();
+    private final ChannelTable channels = new ChannelTable();
 
-    private final Map<Integer, Channel> channels = new ConcurrentHashMap<Integer, Channel>();
+    private final KeepAlive keepAlive;
 
     private final Map<String, ForwardedChannelOpener> openers = new ConcurrentHashMap<String, ForwardedChannelOpener>();
 
     private final Queue<GlobalRequestResult> globalReqFutures = new LinkedList<GlobalRequestResult>();
 
     private int windowSize = 2048 * 1024;
+    private int maxWindowSize = 16 * 1024 * 1024;
     private int maxPacketSize = 32 * 1024;
 
     /**
@@ -69,12 +72,13 @@ public class ConnectionImpl
      */
     public ConnectionImpl(Transport trans) {
         super("ssh-connection", trans);
+        keepAlive = new KeepAlive(this, trans);
     }
 
     @Override
     public void attach(Channel chan) {
         log.info("Attaching `{}` channel (#{})", chan.getType(), chan.getID());
-        channels.put(chan.getID(), chan);
+        channels.put(chan);
     }
 
     @Override
@@ -90,7 +94,7 @@ public class ConnectionImpl
     @Override
     public void forget(Channel chan) {
         log.info("Forgetting `{}` channel (#{})", chan.getType(), chan.getID());
-        channels.remove(chan.getID());
+        channels.remove(chan);
         synchronized (internalSynchronizer) {
             if (channels.isEmpty())
                 internalSynchronizer.notifyAll();
@@ -150,6 +154,7 @@ public class ConnectionImpl
     @Override
     public void notifyError(SSHException error) {
         super.notifyError(error);
+        keepAlive.stop();
 
         synchronized (globalReqFutures) {
             FutureUtils.alertAll(error, globalReqFutures);
@@ -185,6 +190,36 @@ public class ConnectionImpl
         this.windowSize = windowSize;
     }
 
+    @Override
+    public int getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+    @Override
+    public void setMaxWindowSize(int maxWindowSize) {
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    @Override
+    public int getKeepAliveInterval() {
+        return keepAlive.getInterval();
+    }
+
+    @Override
+    public void setKeepAliveInterval(int interval) {
+        keepAlive.setInterval(interval);
+    }
+
+    @Override
+    public int getKeepAliveCountMax() {
+        return keepAlive.getCountMax();
+    }
+
+    @Override
+    public void setKeepAliveCountMax(int countMax) {
+        keepAlive.setCountMax(countMax);
+    }
+
     @Override
     public void join()
             throws InterruptedException {
@@ -194,9 +229,19 @@ public class ConnectionImpl
         }
     }
 
+    @Override
+    public List<Future<Boolean, ConnectionException>> openAll(List<? extends Channel.Direct> channels)
+            throws TransportException {
+        final List<Future<Boolean, ConnectionException>> futures =
+                new ArrayList<Future<Boolean, ConnectionException>>(channels.size());
+        for (Channel.Direct chan : channels)
+            futures.add(chan.openAsync());
+        return futures;
+    }
+
     @Override
     public int nextID() {
-        return nextID.getAndIncrement();
+        return channels.allocate();
     }
 
     @Override
@@ -210,6 +255,7 @@ public class ConnectionImpl
             GlobalRequestResult future = null;
             if (wantReply) {
                 future = new GlobalRequestResult("global req for " + name);
+                future.expireAfter(timeout, TimeUnit.SECONDS);
                 globalReqFutures.add(future);
             }
             return future;
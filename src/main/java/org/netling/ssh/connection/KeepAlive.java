@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.connection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.netling.concurrent.TimerWheel;
+import org.netling.ssh.common.DisconnectReason;
+import org.netling.ssh.transport.Transport;
+import org.netling.ssh.transport.TransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that the server is still responding, by sending a {@code keepalive@openssh.com} global request when nothing
+ * has been received for an interval. Any packet counts as a response, including the reply to the request, which is
+ * {@code SSH_MSG_REQUEST_FAILURE} from servers that do not know it. The connection is considered lost after {@link
+ * #setCountMax countMax} requests have gone unanswered, as with OpenSSH's {@code ServerAliveCountMax}.
+ * <p/>
+ * Driven by the {@link TimerWheel#SHARED shared timer wheel}.
+ */
+final class KeepAlive
+        implements Runnable {
+
+    static final String REQUEST = "keepalive@openssh.com";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConnectionImpl conn;
+    private final Transport trans;
+
+    private int interval;
+    private int countMax = 3;
+    private TimerWheel.Timeout timeout;
+
+    /** Number of packets received as of the previous check */
+    private long lastReceived;
+    /** Number of requests sent since anything was received */
+    private int unanswered;
+
+    KeepAlive(ConnectionImpl conn, Transport trans) {
+        this.conn = conn;
+        this.trans = trans;
+    }
+
+    synchronized int getInterval() {
+        return interval;
+    }
+
+    synchronized void setInterval(int interval) {
+        this.interval = interval;
+        lastReceived = trans.getReceivedPacketCount();
+        unanswered = 0;
+        reschedule();
+    }
+
+    synchronized int getCountMax() {
+        return countMax;
+    }
+
+    synchronized void setCountMax(int countMax) {
+        this.countMax = countMax;
+    }
+
+    synchronized void stop() {
+        interval = 0;
+        reschedule();
+    }
+
+    @Override
+    public void run() {
+        final int sent;
+        synchronized (this) {
+            if (interval <= 0 || !trans.isRunning())
+                return;
+            final long received = trans.getReceivedPacketCount();
+            if (received != lastReceived) {
+                lastReceived = received;
+                unanswered = 0;
+                reschedule();
+                return;
+            }
+            if (unanswered >= countMax)
+                sent = -1;
+            else {
+                sent = ++unanswered;
+                reschedule();
+            }
+        }
+        if (sent == -1) {
+            lost();
+            return;
+        }
+        log.debug("Sending keep-alive #{} since nothing was received", sent);
+        try {
+            conn.sendGlobalRequest(REQUEST, true, new byte[0]);
+        } catch (TransportException e) {
+            log.debug("Error sending keep-alive: {}", e.toString());
+        }
+    }
+
+    private void lost() {
+        final String message;
+        synchronized (this) {
+            message = "No response to " + countMax + " keep-alives sent " + interval + "s apart";
+            interval = 0;
+        }
+        log.error(message);
+        conn.notifyError(new ConnectionException(DisconnectReason.CONNECTION_LOST, message));
+        trans.disconnect(DisconnectReason.CONNECTION_LOST, message);
+    }
+
+    /** Must be called with the monitor held. */
+    private void reschedule() {
+        if (timeout != null)
+            timeout.cancel();
+        timeout = interval > 0 ? TimerWheel.SHARED.schedule(this, interval, TimeUnit.SECONDS) : null;
+    }
+
+}
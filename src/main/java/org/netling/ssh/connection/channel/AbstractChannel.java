@@ -39,12 +39,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.netling.concurrent.Event;
+import org.netling.concurrent.Future;
 import org.netling.concurrent.FutureUtils;
 import org.netling.ssh.common.Buffer;
+import org.netling.ssh.common.BufferPool;
 import org.netling.ssh.common.ByteArrayUtils;
 import org.netling.ssh.common.DisconnectReason;
 import org.netling.ssh.common.Message;
@@ -67,6 +71,24 @@ public abstract class AbstractChannel
         }
     }
 
+    /** Data passed to {@link AbstractChannel#writeAsync} */
+    private static final class PendingWrite {
+
+        private final byte[] data;
+        private final int len;
+        private final Future<Integer, ConnectionException> future;
+        private int offset;
+        private int remaining;
+
+        private PendingWrite(int id, byte[] data, int offset, int len) {
+            this.data = data;
+            this.offset = offset;
+            this.len = remaining = len;
+            future = new Future<Integer, ConnectionException>("chan#" + id + " / write", ConnectionException.chainer);
+        }
+
+    }
+
     /** Logger */
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -108,6 +130,15 @@ public abstract class AbstractChannel
 
     private volatile boolean autoExpand = false;
 
+    private volatile ChannelDataListener dataListener;
+
+    /** Data to be sent as the remote window allows */
+    private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<PendingWrite>();
+    /** Whether a thread is sending {@link #pendingWrites} */
+    private final AtomicBoolean sending = new AtomicBoolean();
+    /** Whether this channel has been forgotten by the connection */
+    private final AtomicBoolean forgotten = new AtomicBoolean();
+
     protected AbstractChannel(Connection conn, String type) {
         this.conn = conn;
         this.type = type;
@@ -117,7 +148,7 @@ public abstract class AbstractChannel
         open = new ChannelEvent("chan#" + id + " / " + "open");
         close = new ChannelEvent("chan#" + id + " / " + "close");
 
-        lwin = new Window.Local(conn.getWindowSize(), conn.getMaxPacketSize());
+        lwin = new Window.Local(conn.getWindowSize(), conn.getMaxWindowSize(), conn.getMaxPacketSize());
         in = new ChannelInputStream(this, trans, lwin);
     }
 
@@ -153,6 +184,11 @@ public abstract class AbstractChannel
         return lwin.getSize();
     }
 
+    @Override
+    public Window.Local getLocalWindow() {
+        return lwin;
+    }
+
     @Override
     public OutputStream getOutputStream() {
         return out;
@@ -246,6 +282,10 @@ public abstract class AbstractChannel
 
         in.notifyError(error);
         out.notifyError(error);
+        final ChannelDataListener listener = dataListener;
+        if (listener != null)
+            listener.notifyError(error);
+        failPending(error);
 
         finishOff();
     }
@@ -255,6 +295,71 @@ public abstract class AbstractChannel
         this.autoExpand = autoExpand;
     }
 
+    @Override
+    public void setDataListener(ChannelDataListener listener) {
+        this.dataListener = listener;
+    }
+
+    @Override
+    public Future<Integer, ConnectionException> writeAsync(byte[] data, int offset, int len)
+            throws TransportException {
+        final PendingWrite write = new PendingWrite(id, data, offset, len);
+        if (len == 0)
+            write.future.set(0);
+        else if (!isOpen() || eofSent)
+            write.future.error(new ConnectionException("Stream closed"));
+        else {
+            pendingWrites.add(write);
+            sendPending();
+        }
+        return write.future;
+    }
+
+    /**
+     * Sends as much of the {@link #pendingWrites pending data} as the remote window allows. Does not block if another
+     * thread is at it, so that it can be called from the thread servicing the connection.
+     */
+    private void sendPending()
+            throws TransportException {
+        while (!pendingWrites.isEmpty() && sending.compareAndSet(false, true)) {
+            try {
+                PendingWrite write;
+                while ((write = pendingWrites.peek()) != null) {
+                    final int n = rwin.tryConsume(Math.min(write.remaining, rwin.getMaxPacketSize()));
+                    if (n == 0)
+                        break;
+                    final SSHPacket packet = new SSHPacket(Message.CHANNEL_DATA, BufferPool.SHARED);
+                    try {
+                        trans.write(packet.putInt(recipient).putString(write.data, write.offset, n));
+                    } catch (TransportException e) {
+                        pendingWrites.remove();
+                        write.future.error(e);
+                        throw e;
+                    } finally {
+                        packet.release();
+                    }
+                    write.offset += n;
+                    write.remaining -= n;
+                    if (write.remaining == 0) {
+                        pendingWrites.remove();
+                        write.future.set(write.len);
+                    }
+                }
+            } finally {
+                sending.set(false);
+            }
+            // Unless window space has been added meanwhile, the next adjustment will resume sending
+            if (rwin.getSize() == 0)
+                break;
+        }
+    }
+
+    private void failPending(SSHException error) {
+        PendingWrite write;
+        while ((write = pendingWrites.poll()) != null)
+            write.future.error(error);
+    }
+
     @Override
     public void close()
             throws ConnectionException, TransportException {
@@ -312,13 +417,19 @@ public abstract class AbstractChannel
         handleRequest(reqType, buf);
     }
 
-    private void gotWindowAdjustment(int howMuch) {
-        log.info("Received window adjustment for {} bytes", howMuch);
+    /** Called when the remote window has been expanded. Subclasses can override but must call super. */
+    protected void gotWindowAdjustment(int howMuch)
+            throws TransportException {
+        if (log.isDebugEnabled())
+            log.debug("Received window adjustment for {} bytes", howMuch);
         rwin.expand(howMuch);
+        sendPending();
     }
 
     protected void finishOff() {
-        conn.forget(this);
+        if (forgotten.compareAndSet(false, true)) // Only once, as our ID may be handed out again after
+            conn.forget(this);
+        failPending(new ConnectionException("Channel closed"));
         close.set();
     }
 
@@ -348,7 +459,17 @@ public abstract class AbstractChannel
             throw new ConnectionException(DisconnectReason.PROTOCOL_ERROR, "Bad item length: " + len);
         if (log.isTraceEnabled())
             log.trace("IN #{}: {}", id, ByteArrayUtils.printHex(buf.array(), buf.rpos(), len));
-        stream.receive(buf.array(), buf.rpos(), len);
+        final ChannelDataListener listener = dataListener;
+        if (listener != null) {
+            lwin.consume(len);
+            if (stream == in)
+                listener.gotData(this, buf.array(), buf.rpos(), len);
+            else
+                listener.gotExtendedData(this, buf.array(), buf.rpos(), len);
+            // The listener has consumed the data
+            checkWindow();
+        } else
+            stream.receive(buf.array(), buf.rpos(), len);
     }
 
     protected synchronized ChannelEvent sendChannelRequest(String reqType, boolean wantReply,
@@ -389,10 +510,24 @@ public abstract class AbstractChannel
         log.info("Got EOF");
         eofGot = true;
         eofInputStreams();
+        final ChannelDataListener listener = dataListener;
+        if (listener != null)
+            listener.gotEOF(this);
         if (eofSent)
             sendClose();
     }
 
+    /**
+     * Sends a local window adjustment if one is due, after data has been handed to the {@link #setDataListener data
+     * listener}. Subclasses can override this to hold back adjustments, e.g. while they are still buffering data.
+     *
+     * @throws TransportException if there is an error sending the adjustment
+     */
+    protected void checkWindow()
+            throws TransportException {
+        in.checkWindow();
+    }
+
     /** Called when EOF has been received. Subclasses can override but must call super. */
     protected void eofInputStreams() {
         in.eof();
@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.TimeUnit;
 
+import org.netling.concurrent.Future;
 import org.netling.ssh.common.ErrorNotifiable;
 import org.netling.ssh.common.SSHPacketHandler;
 import org.netling.ssh.connection.ConnectionException;
@@ -42,6 +43,17 @@ public interface Channel
         void open()
                 throws ConnectionException, TransportException;
 
+        /**
+         * Request opening this channel from remote end, without waiting for the outcome.
+         *
+         * @return a future for the channel being opened, which fails with an {@link OpenFailException} in case the
+         *         request was rejected
+         *
+         * @throws TransportException error writing packets etc.
+         */
+        Future<Boolean, ConnectionException> openAsync()
+                throws TransportException;
+
     }
 
     /** Forwarded channels are those that are initiated by the server. */
@@ -100,6 +112,9 @@ public interface Channel
     /** @return the current local window size. */
     int getLocalWinSize();
 
+    /** @return the local window, e.g. for its flow control statistics. */
+    Window.Local getLocalWindow();
+
     /** @return an {@code OutputStream} for this channel. */
     OutputStream getOutputStream();
 
@@ -136,6 +151,33 @@ public interface Channel
      */
     void setAutoExpand(boolean autoExpand);
 
+    /**
+     * Set a listener to be handed data as it arrives on this channel, rather than it being buffered for the {@code
+     * InputStream}s, so that no thread has to block reading from them. This should be done before the remote end may
+     * start sending data, e.g. before starting a command on a session.
+     *
+     * @param listener the listener, or {@code null} to revert to buffering data for the {@code InputStream}s
+     */
+    void setDataListener(ChannelDataListener listener);
+
+    /**
+     * Sends data on this channel without blocking for remote window space. As much data as the remote window allows is
+     * sent right away; the rest is sent as the remote end adjusts the window. Data written this way is sent in order,
+     * but must not be interleaved with writes to the {@link #getOutputStream() OutputStream}.
+     * <p/>
+     * The data is not copied, and so must not be modified until the returned future completes.
+     *
+     * @param data   buffer holding the data
+     * @param offset offset of the data
+     * @param len    length of the data
+     *
+     * @return a future that is set to {@code len} once all the data has been sent, or informed of an error
+     *
+     * @throws TransportException if there is an error sending data right away
+     */
+    Future<Integer, ConnectionException> writeAsync(byte[] data, int offset, int len)
+            throws TransportException;
+
     void join()
             throws ConnectionException;
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.connection.channel;
+
+import org.netling.ssh.common.ErrorNotifiable;
+
+/**
+ * Receives the data arriving on a {@link Channel} as it arrives, as an alternative to reading it from the channel's
+ * {@code InputStream}s. See {@link Channel#setDataListener}.
+ * <p/>
+ * Callbacks are invoked on the thread servicing the connection, and so must not block. The data is only valid for the
+ * duration of the call and has to be copied if it is needed afterwards. The local window is credited for it once the
+ * call returns.
+ */
+public interface ChannelDataListener
+        extends ErrorNotifiable {
+
+    /**
+     * Called with data received on the channel.
+     *
+     * @param channel the channel
+     * @param data    buffer holding the data
+     * @param offset  offset of the data
+     * @param len     length of the data
+     */
+    void gotData(Channel channel, byte[] data, int offset, int len);
+
+    /**
+     * Called with extended data received on the channel, i.e. {@code stderr} output of a session.
+     *
+     * @param channel the channel
+     * @param data    buffer holding the data
+     * @param offset  offset of the data
+     * @param len     length of the data
+     */
+    void gotExtendedData(Channel channel, byte[] data, int offset, int len);
+
+    /**
+     * Called when the remote end has indicated it will send no more data.
+     *
+     * @param channel the channel
+     */
+    void gotEOF(Channel channel);
+
+}
@@ -39,8 +39,9 @@ package org.netling.ssh.connection.channel;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
 
-import org.netling.ssh.common.Buffer;
+import org.netling.ssh.common.BufferPool;
 import org.netling.ssh.common.ErrorNotifiable;
 import org.netling.ssh.common.Message;
 import org.netling.ssh.common.SSHException;
@@ -54,34 +55,73 @@ import org.slf4j.LoggerFactory;
 /**
  * {@link InputStream} for channels. Can {@link #receive(byte[], int, int) receive} data into its buffer for serving to
  * readers.
+ * <p/>
+ * Data is passed from the thread receiving it to the reading thread through a chain of fixed-size segments, without
+ * either side taking a lock the other one holds: the receiving thread, which services the whole connection, never
+ * waits for a slow reader. The amount of unread data is bounded by the {@link Window.Local local window} (unless the
+ * channel {@link Channel#setAutoExpand auto-expands} its window), and segments are recycled to the {@link
+ * BufferPool#SHARED shared pool} as soon as they have been read.
  */
 public final class ChannelInputStream
         extends InputStream
         implements ErrorNotifiable {
 
+    /** A segment of received data; only the last one in the chain is still being written to. */
+    private static final class Segment {
+
+        final byte[] data;
+        volatile Segment next;
+
+        Segment(int size) {
+            data = BufferPool.SHARED.obtain(size);
+        }
+
+    }
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final Channel chan;
     private final Transport trans;
     private final Window.Local win;
-    private final Buffer.PlainBuffer buf;
+    private final int segmentSize;
     private final byte[] b = new byte[1];
 
-    private boolean eof;
-    private SSHException error;
+    /** Serializes readers, which are thus a single consumer; never taken by the receiving thread */
+    private final Object readLock = new Object();
+
+    /** Segment being read from, and the position in it; only accessed by readers */
+    private Segment head;
+    private int rpos;
+
+    /** Total number of bytes read; only written by readers, but volatile so that {@link #available()} needs no lock */
+    private volatile long read;
+
+    /** Segment being written to, and the position in it; only accessed by the receiving thread */
+    private Segment tail;
+    private int wpos;
+
+    /** Total number of bytes received; written after the data, so that readers see the data once they see this */
+    private volatile long written;
+
+    /** Reader waiting for data, if any */
+    private volatile Thread waiter;
+
+    private volatile boolean eof;
+    private volatile SSHException error;
 
     public ChannelInputStream(Channel chan, Transport trans, Window.Local win) {
         this.chan = chan;
         this.trans = trans;
         this.win = win;
-        buf = new Buffer.PlainBuffer(chan.getLocalMaxPacketSize());
+        segmentSize = chan.getLocalMaxPacketSize();
+        head = tail = new Segment(segmentSize);
     }
 
     @Override
     public int available() {
-        synchronized (buf) {
-            return buf.available();
-        }
+        // Not under readLock, which a reader waiting for data holds; reading read first keeps the difference >= 0
+        final long r = read;
+        return (int) Math.min(written - r, Integer.MAX_VALUE);
     }
 
     @Override
@@ -90,16 +130,14 @@ public final class ChannelInputStream
     }
 
     public void eof() {
-        synchronized (buf) {
-            if (!eof) {
-                eof = true;
-                buf.notifyAll();
-            }
+        if (!eof) {
+            eof = true;
+            wakeReader();
         }
     }
 
     @Override
-    public synchronized void notifyError(SSHException error) {
+    public void notifyError(SSHException error) {
         this.error = error;
         eof();
     }
@@ -115,26 +153,37 @@ public final class ChannelInputStream
     @Override
     public int read(byte[] b, int off, int len)
             throws IOException {
-        synchronized (buf) {
-            for (; ;) {
-                if (buf.available() > 0)
-                    break;
-                if (eof)
+        synchronized (readLock) {
+            long available;
+            while ((available = written - read) == 0) {
+                if (eof) {
+                    // Data may have arrived right before EOF
+                    if (written != read)
+                        continue;
                     if (error != null)
                         throw error;
-                    else
-                        return -1;
-                try {
-                    buf.wait();
-                } catch (InterruptedException e) {
-                    throw (IOException) new InterruptedIOException().initCause(e);
+                    return -1;
                 }
+                waitForData();
             }
-            if (len > buf.available())
-                len = buf.available();
-            buf.readRawBytes(b, off, len);
-            if (buf.rpos() > win.getMaxPacketSize() && buf.available() == 0)
-                buf.clear();
+
+            if (len > available)
+                len = (int) available;
+            int copied = 0;
+            while (copied < len) {
+                if (rpos == segmentSize) {
+                    // The writer has moved on to the next segment, which is linked before it is written to
+                    final Segment done = head;
+                    head = head.next;
+                    rpos = 0;
+                    BufferPool.SHARED.recycle(done.data);
+                }
+                final int n = Math.min(len - copied, segmentSize - rpos);
+                System.arraycopy(head.data, rpos, b, off + copied, n);
+                rpos += n;
+                copied += n;
+            }
+            read += len;
         }
 
         if (!chan.getAutoExpand())
@@ -147,23 +196,61 @@ public final class ChannelInputStream
             throws ConnectionException, TransportException {
         if (eof)
             throw new ConnectionException("Getting data on EOF'ed stream");
-        synchronized (buf) {
-            buf.putRawBytes(data, offset, len);
-            buf.notifyAll();
+        int copied = 0;
+        while (copied < len) {
+            if (wpos == segmentSize) {
+                final Segment next = new Segment(segmentSize);
+                tail.next = next;
+                tail = next;
+                wpos = 0;
+            }
+            final int n = Math.min(len - copied, segmentSize - wpos);
+            System.arraycopy(data, offset + copied, tail.data, wpos, n);
+            wpos += n;
+            copied += n;
         }
+        written += len; // only ever written by this thread
+        wakeReader();
         win.consume(len);
         if (chan.getAutoExpand())
             checkWindow();
     }
 
-    private void checkWindow()
+    private void waitForData()
+            throws InterruptedIOException {
+        waiter = Thread.currentThread();
+        try {
+            // Re-check after registering, so that a wake-up between the caller's check and parking is not lost
+            if (written == read && !eof)
+                LockSupport.park(this);
+            if (Thread.interrupted())
+                throw new InterruptedIOException();
+        } finally {
+            waiter = null;
+        }
+    }
+
+    private void wakeReader() {
+        final Thread t = waiter;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    /** Sends a window adjustment if one is due. */
+    void checkWindow()
             throws TransportException {
         synchronized (win) {
             final int adjustment = win.neededAdjustment();
             if (adjustment > 0) {
-                log.info("Sending SSH_MSG_CHANNEL_WINDOW_ADJUST to #{} for {} bytes", chan.getRecipient(), adjustment);
-                final SSHPacket packet = new SSHPacket(Message.CHANNEL_WINDOW_ADJUST);
-                trans.write(packet.putInt(chan.getRecipient()).putInt(adjustment));
+                if (log.isDebugEnabled())
+                    log.debug("Sending SSH_MSG_CHANNEL_WINDOW_ADJUST to #{} for {} bytes", chan.getRecipient(),
+                              adjustment);
+                final SSHPacket packet = new SSHPacket(Message.CHANNEL_WINDOW_ADJUST, BufferPool.SHARED);
+                try {
+                    trans.write(packet.putInt(chan.getRecipient()).putInt(adjustment));
+                } finally {
+                    packet.release();
+                }
                 win.expand(adjustment);
             }
         }
@@ -37,7 +37,9 @@ package org.netling.ssh.connection.channel;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import org.netling.ssh.common.BufferPool;
 import org.netling.ssh.common.ErrorNotifiable;
 import org.netling.ssh.common.Message;
 import org.netling.ssh.common.SSHException;
@@ -48,6 +50,10 @@ import org.netling.ssh.transport.Transport;
 /**
  * {@link OutputStream} for channels. Buffers data upto the remote window's maximum packet size. Data can also be
  * flushed via {@link #flush()} and is also flushed on {@link #close()}.
+ * <p/>
+ * The buffer is obtained from {@link BufferPool#SHARED} and returned to it once the stream is closed. Writes of at
+ * least a full packet that find the buffer empty bypass it: the data is sent in packets of the maximum size, encoded
+ * straight from the caller's array by {@link Transport#write(SSHPacket, byte[], int, int)}.
  */
 public final class ChannelOutputStream
         extends OutputStream
@@ -56,7 +62,9 @@ public final class ChannelOutputStream
     private final Channel chan;
     private final Transport trans;
     private final Window.Remote win;
-    private final SSHPacket buffer = new SSHPacket();
+    private final SSHPacket buffer = new SSHPacket(SSHPacket.DEFAULT_SIZE, BufferPool.SHARED);
+    /** Message ID, recipient and data length of packets that bypass {@link #buffer} */
+    private final SSHPacket header = new SSHPacket(14);
     private final byte[] b = new byte[1];
     private int bufferLength;
     private boolean closed;
@@ -90,7 +98,14 @@ public final class ChannelOutputStream
             throws IOException {
         checkClose();
         while (len > 0) {
-            final int x = Math.min(len, win.getMaxPacketSize() - bufferLength);
+            final int maxPacketSize = win.getMaxPacketSize();
+            if (bufferLength == 0 && len >= maxPacketSize) {
+                writeDirect(data, off, maxPacketSize);
+                off += maxPacketSize;
+                len -= maxPacketSize;
+                continue;
+            }
+            final int x = Math.min(len, maxPacketSize - bufferLength);
             if (x <= 0) {
                 flush();
                 continue;
@@ -102,6 +117,46 @@ public final class ChannelOutputStream
         }
     }
 
+    /**
+     * Writes the remaining bytes of {@code src}, like {@link #write(byte[], int, int)} does for an array. A buffer that
+     * is not backed by an array is copied into the stream's buffer.
+     *
+     * @param src the data to write
+     *
+     * @throws IOException
+     */
+    public synchronized void write(ByteBuffer src)
+            throws IOException {
+        if (src.hasArray()) {
+            write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        checkClose();
+        while (src.hasRemaining()) {
+            final int x = Math.min(src.remaining(), win.getMaxPacketSize() - bufferLength);
+            if (x <= 0) {
+                flush();
+                continue;
+            }
+            buffer.ensureCapacity(x);
+            src.get(buffer.array(), buffer.wpos(), x);
+            buffer.wpos(buffer.wpos() + x);
+            bufferLength += x;
+        }
+    }
+
+    private void writeDirect(byte[] data, int off, int len)
+            throws IOException {
+        header.rpos(5);
+        header.wpos(5);
+        header.putMessageID(Message.CHANNEL_DATA);
+        header.putInt(chan.getRecipient());
+        header.putInt(len);
+        win.waitAndConsume(len);
+        trans.write(header, data, off, len);
+    }
+
     @Override
     public synchronized void notifyError(SSHException error) {
         this.error = error;
@@ -130,6 +185,7 @@ public final class ChannelOutputStream
 
     public synchronized void setClosed() {
         closed = true;
+        buffer.release();
     }
 
     @Override
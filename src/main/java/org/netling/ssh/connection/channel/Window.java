@@ -37,7 +37,8 @@ public abstract class Window {
 
     public void expand(int inc) {
         synchronized (lock) {
-            log.debug("Increasing by {} up to {}", inc, size);
+            if (log.isDebugEnabled())
+                log.debug("Increasing by {} up to {}", inc, size);
             size += inc;
             lock.notifyAll();
         }
@@ -53,7 +54,8 @@ public abstract class Window {
 
     public void consume(int dec) {
         synchronized (lock) {
-            log.debug("Consuming by " + dec + " down to " + size);
+            if (log.isDebugEnabled())
+                log.debug("Consuming by {} down to {}", dec, size);
             size -= dec;
             if (size < 0)
                 throw new SSHRuntimeException("Window consumed to below 0");
@@ -77,7 +79,8 @@ public abstract class Window {
                 throws ConnectionException {
             synchronized (lock) {
                 while (size < howMuch) {
-                    log.debug("Waiting, need window space for {} bytes", howMuch);
+                    if (log.isDebugEnabled())
+                        log.debug("Waiting, need window space for {} bytes", howMuch);
                     try {
                         lock.wait();
                     } catch (InterruptedException ie) {
@@ -88,27 +91,155 @@ public abstract class Window {
             }
         }
 
+        /**
+         * Consumes as much window space as is available, up to {@code max} bytes, without waiting.
+         *
+         * @return the number of bytes consumed, which may be 0
+         */
+        public int tryConsume(int max) {
+            synchronized (lock) {
+                final int n = Math.min(max, size);
+                if (n > 0)
+                    consume(n);
+                return n;
+            }
+        }
+
     }
 
-    /** Controls how much data remote end can send before an adjustment notification from us is required. */
+    /**
+     * Controls how much data remote end can send before an adjustment notification from us is required.
+     * <p/>
+     * The window starts out at its initial size. If a larger maximum size is allowed, its limit adapts to the
+     * bandwidth-delay product of the connection. When the remote end has used up the window by the time we adjust it,
+     * it has to wait for the adjustment, and the time until data arrives again is taken as a round-trip time sample.
+     * Once per round trip, the rate at which the window got freed up is measured; if that rate moves close to a full
+     * window per round trip, the window is what limits throughput and its limit is doubled.
+     * <p/>
+     * Adjustments are sent in steps of an eighth of the limit (but at least one packet) as the window is freed up,
+     * rather than in one lump once most of it has been used.
+     */
     public static final class Local
             extends Window {
 
-        private final int initialSize;
-        private final int threshold;
+        private final int maxSize;
+
+        private int limit;
+        private int step;
+
+        /** Smoothed round-trip time in nanoseconds, 0 if not measured yet */
+        private long rtt;
+        /** Whether an adjustment has been sent on an exhausted window, and when */
+        private boolean stalled;
+        private long stalledAt;
+
+        /** Start of the current rate measurement, and bytes freed up since */
+        private long epochStart = System.nanoTime();
+        private long epochBytes;
+
+        private long adjustments;
+        private long stalls;
 
         public Local(int initialWinSize, int maxPacketSize) {
+            this(initialWinSize, initialWinSize, maxPacketSize);
+        }
+
+        public Local(int initialWinSize, int maxWinSize, int maxPacketSize) {
             super(initialWinSize, maxPacketSize);
-            this.initialSize = initialWinSize;
-            threshold = Math.min(maxPacketSize * 20, initialSize / 4);
+            maxSize = Math.max(initialWinSize, maxWinSize);
+            setLimit(initialWinSize);
+        }
+
+        @Override
+        public void consume(int dec) {
+            synchronized (lock) {
+                if (stalled) {
+                    final long sample = System.nanoTime() - stalledAt;
+                    rtt = rtt == 0 ? sample : (7 * rtt + sample) / 8;
+                    stalled = false;
+                }
+                super.consume(dec);
+            }
         }
 
+        /** @return the number of bytes the window should be expanded by now, which may be 0 */
         public int neededAdjustment() {
             synchronized (lock) {
-                return (size - threshold <= 0) ? (initialSize - size) : 0;
+                final int freed = limit - size;
+                if (freed < step)
+                    return 0;
+
+                final long now = System.nanoTime();
+                adjustments++;
+                if (size < maxPacketSize) {
+                    stalls++;
+                    stalled = true;
+                    stalledAt = now;
+                }
+
+                epochBytes += freed;
+                final long elapsed = now - epochStart;
+                if (rtt != 0 && elapsed >= rtt) {
+                    final long bdp = epochBytes * rtt / elapsed;
+                    if (bdp >= limit * 2L / 3 && limit < maxSize) {
+                        setLimit((int) Math.min(maxSize, limit * 2L));
+                        if (log.isDebugEnabled())
+                            log.debug("Window limit raised to {} (rtt={}us)", limit, rtt / 1000);
+                    }
+                    epochStart = now;
+                    epochBytes = 0;
+                }
+
+                return limit - size;
+            }
+        }
+
+        /** @return the size the window is currently kept at */
+        public int getLimit() {
+            synchronized (lock) {
+                return limit;
+            }
+        }
+
+        /** @return the size the window may grow to */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /** @return the smoothed round-trip time in microseconds, or 0 if it has not been measured */
+        public long getRTT() {
+            synchronized (lock) {
+                return rtt / 1000;
+            }
+        }
+
+        /** @return the number of window adjustments made */
+        public long getAdjustmentCount() {
+            synchronized (lock) {
+                return adjustments;
+            }
+        }
+
+        /** @return the number of adjustments made after the remote end had (nearly) used up the window */
+        public long getStallCount() {
+            synchronized (lock) {
+                return stalls;
             }
         }
 
+        @Override
+        public String toString() {
+            synchronized (lock) {
+                return "[winSize=" + size + ", limit=" + limit + ", rtt=" + rtt / 1000 + "us, adjustments="
+                       + adjustments + ", stalls=" + stalls + "]";
+            }
+        }
+
+        private void setLimit(int limit) {
+            this.limit = limit;
+            step = Math.max(1, Math.min(limit / 2, Math.max(maxPacketSize, limit / 8)));
+        }
+
     }
 
 }
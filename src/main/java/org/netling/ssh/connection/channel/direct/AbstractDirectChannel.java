@@ -37,6 +37,7 @@ package org.netling.ssh.connection.channel.direct;
 
 import java.util.concurrent.TimeUnit;
 
+import org.netling.concurrent.Future;
 import org.netling.ssh.common.Message;
 import org.netling.ssh.common.SSHPacket;
 import org.netling.ssh.connection.Connection;
@@ -63,10 +64,18 @@ public abstract class AbstractDirectChannel
     @Override
     public void open()
             throws ConnectionException, TransportException {
-        trans.write(buildOpenReq());
+        openAsync();
         open.await(conn.getTimeout(), TimeUnit.SECONDS);
     }
 
+    @Override
+    public Future<Boolean, ConnectionException> openAsync()
+            throws TransportException {
+        trans.write(buildOpenReq());
+        open.expireAfter(conn.getTimeout(), TimeUnit.SECONDS);
+        return open;
+    }
+
     private void gotOpenConfirmation(SSHPacket buf) {
         init(buf.readInt(), buf.readInt(), buf.readInt());
         open.set();
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.connection.channel.direct;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.netling.ssh.common.BufferPool;
+import org.netling.ssh.common.Message;
+import org.netling.ssh.common.SSHException;
+import org.netling.ssh.common.SSHPacket;
+import org.netling.ssh.connection.Connection;
+import org.netling.ssh.connection.ConnectionException;
+import org.netling.ssh.connection.channel.Channel;
+import org.netling.ssh.connection.channel.ChannelDataListener;
+import org.netling.ssh.transport.TransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local port forwarder that services all forwarded connections from the single thread that calls {@link #listen()},
+ * whereas {@link LocalPortForwarder} needs two threads per connection.
+ * <p/>
+ * Sockets are non-blocking and multiplexed with a {@link Selector}. Data is only read from a socket as far as the
+ * remote window of its channel allows. Data from a channel that its socket cannot take yet is buffered, and once more
+ * than the {@link #setBufferLimit buffer limit} is buffered for a connection, the local window of its channel is not
+ * replenished until the socket has caught up.
+ */
+public class NioLocalPortForwarder
+        implements Closeable {
+
+    private class DirectTCPIPChannel
+            extends AbstractDirectChannel
+            implements ChannelDataListener {
+
+        private final SocketChannel sock;
+
+        /** Selection key, once registered; only accessed by the selector thread */
+        private SelectionKey key;
+        /** Whether the socket has reached EOF; only accessed by the selector thread */
+        private boolean sockEOF;
+
+        /** Data from the channel that the socket has not taken yet; guarded by itself */
+        private final Queue<ByteBuffer> toSocket = new LinkedList<ByteBuffer>();
+        private int buffered;
+        private boolean chanEOF;
+
+        private DirectTCPIPChannel(Connection conn, SocketChannel sock) {
+            super(conn, "direct-tcpip");
+            this.sock = sock;
+            setDataListener(this);
+        }
+
+        @Override
+        protected SSHPacket buildOpenReq() {
+            return super.buildOpenReq()
+                    .putString(host)
+                    .putInt(port)
+                    .putString(listeningAddress.getAddress().getHostAddress())
+                    .putInt(listeningAddress.getPort());
+        }
+
+        @Override
+        protected void gotUnknown(Message cmd, SSHPacket buf)
+                throws ConnectionException, TransportException {
+            super.gotUnknown(cmd, buf);
+            if (cmd == Message.CHANNEL_OPEN_CONFIRMATION) {
+                synchronized (opening) {
+                    opening.remove(this);
+                    if (!stopped) {
+                        submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                register();
+                            }
+                        });
+                        return;
+                    }
+                }
+                // Opened after the forwarder stopped servicing connections
+                failed(new IOException("Forwarder closed"));
+            } else if (cmd == Message.CHANNEL_OPEN_FAILURE) {
+                log.info("Could not open channel for {}", sock.socket().getRemoteSocketAddress());
+                synchronized (opening) {
+                    opening.remove(this);
+                }
+                closeSocket();
+            }
+        }
+
+        @Override
+        public void gotData(Channel channel, byte[] data, int offset, int len) {
+            synchronized (toSocket) {
+                final ByteBuffer bb = ByteBuffer.wrap(data, offset, len);
+                final boolean wasEmpty = toSocket.isEmpty();
+                if (wasEmpty)
+                    try {
+                        sock.write(bb);
+                    } catch (IOException e) {
+                        failed(e);
+                        return;
+                    }
+                if (bb.hasRemaining()) {
+                    final ByteBuffer copy = ByteBuffer.allocate(bb.remaining());
+                    copy.put(bb).flip();
+                    toSocket.add(copy);
+                    buffered += copy.remaining();
+                    if (wasEmpty)
+                        submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                setInterest(SelectionKey.OP_WRITE, true);
+                            }
+                        });
+                }
+            }
+        }
+
+        @Override
+        public void gotExtendedData(Channel channel, byte[] data, int offset, int len) {
+            // Not used with direct-tcpip
+        }
+
+        @Override
+        public void gotEOF(Channel channel) {
+            synchronized (toSocket) {
+                chanEOF = true;
+                if (toSocket.isEmpty())
+                    shutdownOutput();
+            }
+        }
+
+        @Override
+        public void notifyError(SSHException error) {
+            closeSocket();
+        }
+
+        /** Withholds window adjustments while more than the buffer limit waits to be written to the socket. */
+        @Override
+        protected void checkWindow()
+                throws TransportException {
+            synchronized (toSocket) {
+                if (buffered > bufferLimit)
+                    return;
+            }
+            super.checkWindow();
+        }
+
+        @Override
+        protected void gotWindowAdjustment(int howMuch)
+                throws TransportException {
+            super.gotWindowAdjustment(howMuch);
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (!sockEOF)
+                        setInterest(SelectionKey.OP_READ, true);
+                }
+            });
+        }
+
+        @Override
+        protected void closeAllStreams() {
+            super.closeAllStreams();
+            closeSocket();
+        }
+
+        /** Called on the selector thread once the channel is open. */
+        private void register() {
+            try {
+                key = sock.register(selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            synchronized (toSocket) {
+                if (!toSocket.isEmpty())
+                    setInterest(SelectionKey.OP_WRITE, true);
+            }
+        }
+
+        /** Called on the selector thread when the socket is readable. */
+        private void readable()
+                throws IOException {
+            final int n = rwin.tryConsume(Math.min(readBuf.capacity(), rwin.getMaxPacketSize()));
+            if (n == 0) {
+                // Resumed on window adjustment
+                setInterest(SelectionKey.OP_READ, false);
+                return;
+            }
+            readBuf.clear().limit(n);
+            final int read = sock.read(readBuf);
+            if (read < n)
+                rwin.expand(n - Math.max(read, 0)); // Give back what was not used
+            if (read == -1) {
+                sockEOF = true;
+                setInterest(SelectionKey.OP_READ, false);
+                sendEOF();
+            } else if (read > 0) {
+                final SSHPacket packet = new SSHPacket(Message.CHANNEL_DATA, BufferPool.SHARED);
+                try {
+                    trans.write(packet.putInt(getRecipient()).putString(readBuf.array(), 0, read));
+                } finally {
+                    packet.release();
+                }
+            }
+        }
+
+        /** Called on the selector thread when the socket is writable. */
+        private void writable()
+                throws IOException {
+            final boolean credit;
+            synchronized (toSocket) {
+                final int before = buffered;
+                ByteBuffer bb;
+                while ((bb = toSocket.peek()) != null) {
+                    buffered -= sock.write(bb);
+                    if (bb.hasRemaining())
+                        break;
+                    toSocket.remove();
+                }
+                if (toSocket.isEmpty()) {
+                    setInterest(SelectionKey.OP_WRITE, false);
+                    if (chanEOF)
+                        shutdownOutput();
+                }
+                credit = before > bufferLimit && buffered <= bufferLimit;
+            }
+            if (credit)
+                checkWindow();
+        }
+
+        private void setInterest(int op, boolean on) {
+            if (key != null && key.isValid())
+                key.interestOps(on ? key.interestOps() | op : key.interestOps() & ~op);
+        }
+
+        private void shutdownOutput() {
+            try {
+                sock.socket().shutdownOutput();
+            } catch (IOException e) {
+                log.debug("Error shutting down output of {}: {}", sock, e.toString());
+            }
+        }
+
+        private void failed(IOException e) {
+            log.debug("Forwarded connection failed: {}", e.toString());
+            closeSocket();
+            // If not open yet, this happens once the confirmation arrives and registering the closed socket fails
+            if (isOpen())
+                try {
+                    sendClose();
+                } catch (TransportException te) {
+                    log.debug("Error closing channel #{}: {}", getID(), te.toString());
+                }
+        }
+
+        private void closeSocket() {
+            try {
+                sock.close();
+            } catch (IOException e) {
+                log.debug("Error closing {}: {}", sock, e.toString());
+            }
+        }
+
+    }
+
+    /** Default for {@link #setBufferLimit} */
+    public static final int DEFAULT_BUFFER_LIMIT = 256 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Connection conn;
+    private final String host;
+    private final int port;
+
+    private final ServerSocketChannel ssc;
+    private final InetSocketAddress listeningAddress;
+    private final Selector selector;
+
+    /** Work to be done on the selector thread */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /** Channels whose opening has not been confirmed or refused yet; guarded by itself */
+    private final Set<DirectTCPIPChannel> opening = new HashSet<DirectTCPIPChannel>();
+    /** Whether connections are no longer serviced; guarded by {@link #opening} */
+    private boolean stopped;
+
+    /** Buffer for reading from sockets; only used by the selector thread */
+    private final ByteBuffer readBuf = ByteBuffer.allocate(32 * 1024);
+
+    private volatile int bufferLimit = DEFAULT_BUFFER_LIMIT;
+
+    /**
+     * Create a local port forwarder with specified binding ({@code listeningAddr}). It does not, however, start
+     * listening unless {@link #listen() explicitly told to}.
+     *
+     * @param conn          {@link Connection} implementation
+     * @param listeningAddr {@link SocketAddress} this forwarder will listen on, if {@code null} then an ephemeral port
+     *                      and valid local address will be picked to bind the server socket
+     * @param host          what host the SSH server will further forward to
+     * @param port          port on {@code toHost}
+     *
+     * @throws IOException if there is an error binding on specified {@code listeningAddr}
+     */
+    public NioLocalPortForwarder(Connection conn, SocketAddress listeningAddr, String host, int port)
+            throws IOException {
+        this.conn = conn;
+        this.host = host;
+        this.port = port;
+        ssc = ServerSocketChannel.open();
+        ssc.socket().setReceiveBufferSize(conn.getMaxPacketSize());
+        ssc.socket().bind(listeningAddr);
+        listeningAddress = (InetSocketAddress) ssc.socket().getLocalSocketAddress();
+        ssc.configureBlocking(false);
+        selector = Selector.open();
+        ssc.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** @return the address to which this forwarder is bound for listening */
+    public SocketAddress getListeningAddress() {
+        return listeningAddress;
+    }
+
+    /** @return the number of bytes per connection that may be buffered before its channel's window is held back */
+    public int getBufferLimit() {
+        return bufferLimit;
+    }
+
+    /**
+     * Set how many bytes received on a channel may be waiting for its socket to take them, before the channel's local
+     * window is no longer replenished.
+     *
+     * @param bufferLimit buffer limit in bytes
+     */
+    public void setBufferLimit(int bufferLimit) {
+        this.bufferLimit = bufferLimit;
+    }
+
+    /**
+     * Start listening for incoming connections and forward to remote host as a channel. Services all connections until
+     * this forwarder is {@link #close() closed} or the thread is interrupted.
+     *
+     * @throws IOException if there is an error accepting connections
+     */
+    public void listen()
+            throws IOException {
+        log.info("Listening on {}", listeningAddress);
+        try {
+            while (!Thread.currentThread().isInterrupted() && ssc.isOpen()) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else
+                        service(key);
+                }
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    /** Stops listening, and closes all forwarded connections. */
+    @Override
+    public void close()
+            throws IOException {
+        ssc.close();
+        selector.wakeup();
+    }
+
+    private void accept()
+            throws IOException {
+        final SocketChannel sock = ssc.accept();
+        if (sock == null)
+            return;
+        log.info("Got connection from {}", sock.socket().getRemoteSocketAddress());
+        sock.configureBlocking(false);
+        final DirectTCPIPChannel chan = new DirectTCPIPChannel(conn, sock);
+        synchronized (opening) {
+            opening.add(chan);
+        }
+        chan.openAsync();
+    }
+
+    private void service(SelectionKey key) {
+        final DirectTCPIPChannel chan = (DirectTCPIPChannel) key.attachment();
+        try {
+            if (key.isWritable())
+                chan.writable();
+            if (key.isValid() && key.isReadable())
+                chan.readable();
+        } catch (IOException e) {
+            chan.failed(e);
+        }
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void closeAll() {
+        final List<DirectTCPIPChannel> notOpenYet;
+        synchronized (opening) {
+            stopped = true;
+            notOpenYet = new ArrayList<DirectTCPIPChannel>(opening);
+            opening.clear();
+        }
+        // Channels confirmed before that get registered, so that they are closed along with the others
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+        // The others are closed once their confirmation arrives
+        for (DirectTCPIPChannel chan : notOpenYet)
+            chan.failed(new IOException("Forwarder closed"));
+        for (SelectionKey key : selector.keys())
+            if (key.attachment() != null)
+                ((DirectTCPIPChannel) key.attachment()).failed(new IOException("Forwarder closed"));
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.debug("Error closing selector: {}", e.toString());
+        }
+    }
+
+}
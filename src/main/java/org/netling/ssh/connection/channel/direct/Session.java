@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 
+import org.netling.concurrent.Future;
 import org.netling.ssh.connection.ConnectionException;
 import org.netling.ssh.connection.channel.Channel;
 import org.netling.ssh.transport.TransportException;
@@ -190,6 +191,19 @@ public interface Session
     Command exec(String command)
             throws ConnectionException, TransportException;
 
+    /**
+     * Request execution of a remote command without waiting for the reply, so that requests on several sessions can be
+     * outstanding at once. Once the returned future is set, this session can be used as a {@link Command}.
+     *
+     * @param command
+     *
+     * @return a future for the reply, which fails with a {@link ConnectionException} if the request failed
+     *
+     * @throws TransportException if there is an error sending the request
+     */
+    Future<Boolean, ConnectionException> execAsync(String command)
+            throws TransportException;
+
     /**
      * Request X11 forwarding.
      *
@@ -240,4 +254,17 @@ public interface Session
     Subsystem startSubsystem(String name)
             throws ConnectionException, TransportException;
 
+    /**
+     * Request a subsystem without waiting for the reply. Once the returned future is set, this session can be used as a
+     * {@link Subsystem}.
+     *
+     * @param name subsystem name
+     *
+     * @return a future for the reply, which fails with a {@link ConnectionException} if the request failed
+     *
+     * @throws TransportException if there is an error sending the request
+     */
+    Future<Boolean, ConnectionException> startSubsystemAsync(String name)
+            throws TransportException;
+
 }
@@ -41,6 +41,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import org.netling.concurrent.Future;
 import org.netling.io.StreamCopier;
 import org.netling.ssh.common.Buffer;
 import org.netling.ssh.common.SSHException;
@@ -125,6 +126,15 @@ implements Session, Session.Command, Session.Shell, Session.Subsystem {
 			return this;
 		}
 
+	@Override
+		public Future<Boolean, ConnectionException> execAsync(String command)
+		throws TransportException {
+			checkReuse();
+			log.info("Will request to exec `{}`", command);
+			usedUp = true;
+			return expiring(sendChannelRequest("exec", true, new Buffer.PlainBuffer().putString(command)));
+		}
+
 	@Override
 		public String getErrorAsString()
 		throws IOException {
@@ -221,6 +231,15 @@ implements Session, Session.Command, Session.Shell, Session.Subsystem {
 			return this;
 		}
 
+	@Override
+		public Future<Boolean, ConnectionException> startSubsystemAsync(String name)
+		throws TransportException {
+			checkReuse();
+			log.info("Will request `{}` subsystem", name);
+			usedUp = true;
+			return expiring(sendChannelRequest("subsystem", true, new Buffer.PlainBuffer().putString(name)));
+		}
+
 	@Override
 		public Boolean getExitWasCoreDumped() {
 			return wasCoreDumped;
@@ -252,6 +271,11 @@ implements Session, Session.Command, Session.Shell, Session.Subsystem {
 		super.notifyError(error);
 	} 
 
+	private ChannelEvent expiring(ChannelEvent reply) {
+		reply.expireAfter(conn.getTimeout(), TimeUnit.SECONDS);
+		return reply;
+	}
+
 	private void checkReuse() {
 		if (usedUp)
 			throw new SSHRuntimeException("This session channel is used up");
@@ -35,6 +35,8 @@
  */
 package org.netling.ssh.connection.channel.forwarded;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.netling.ssh.common.Message;
 import org.netling.ssh.connection.Connection;
 import org.netling.ssh.connection.channel.AbstractChannel;
@@ -50,6 +52,9 @@ public abstract class AbstractForwardedChannel
     protected final String origIP;
     protected final int origPort;
 
+    /** Run once when this channel is rejected or finished off */
+    private final AtomicReference<Runnable> closeHook = new AtomicReference<Runnable>();
+
     /*
     * First 2 args are standard; the others can be parsed from a CHANNEL_OPEN packet.
     */
@@ -79,7 +84,17 @@ public abstract class AbstractForwardedChannel
     public void reject(Reason reason, String message)
             throws TransportException {
         log.info("Rejecting `{}` channel: {}", getType(), message);
-        conn.sendOpenFailure(getRecipient(), reason, message);
+        try {
+            conn.sendOpenFailure(getRecipient(), reason, message);
+        } finally {
+            finishOff();
+        }
+    }
+
+    @Override
+    protected void finishOff() {
+        super.finishOff();
+        runCloseHook();
     }
 
     @Override
@@ -92,4 +107,15 @@ public abstract class AbstractForwardedChannel
         return origPort;
     }
 
+    /** Sets what to run once this channel has been rejected or has closed. */
+    void setCloseHook(Runnable hook) {
+        closeHook.set(hook);
+    }
+
+    private void runCloseHook() {
+        final Runnable hook = closeHook.getAndSet(null);
+        if (hook != null)
+            hook.run();
+    }
+
 }
@@ -17,24 +17,62 @@
 package org.netling.ssh.connection.channel.forwarded;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.netling.io.Util;
 import org.netling.ssh.connection.Connection;
-import org.netling.ssh.connection.channel.Channel;
 import org.netling.ssh.connection.channel.OpenFailException;
 import org.netling.ssh.transport.TransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Base class for {@link ForwardedChannelOpener}'s. */
+/**
+ * Base class for {@link ForwardedChannelOpener}'s.
+ * <p/>
+ * {@link ConnectListener} callbacks are run on an {@link #setExecutor executor}, by default one shared by all openers
+ * whose threads are reused across callbacks, and which runs at most {@link #SHARED_EXECUTOR_THREADS} callbacks at a
+ * time. At most {@link #setMaxChannels a limited number} of channels are handled
+ * at a time, counting from when the listener is called until the channel is rejected or closed; further channel opens
+ * are rejected with {@link OpenFailException.Reason#RESOURCE_SHORTAGE}, as are those that the executor does not accept.
+ */
 public abstract class AbstractForwardedChannelOpener
         implements ForwardedChannelOpener {
 
+    /** Default for {@link #setMaxChannels} */
+    public static final int DEFAULT_MAX_CHANNELS = 64;
+
+    /** Maximum number of threads of the executor shared by default, beyond which callbacks are rejected */
+    public static final int SHARED_EXECUTOR_THREADS = 256;
+
+    private static final ExecutorService sharedExecutor = new ThreadPoolExecutor(
+            0, SHARED_EXECUTOR_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "ConnectListener-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
     protected final String chanType;
     protected final Connection conn;
 
+    private final AtomicInteger channels = new AtomicInteger();
+
+    private volatile Executor executor = sharedExecutor;
+    private volatile int maxChannels = DEFAULT_MAX_CHANNELS;
+
     protected AbstractForwardedChannelOpener(String chanType, Connection conn) {
         this.chanType = chanType;
         this.conn = conn;
@@ -45,32 +83,81 @@ public abstract class AbstractForwardedChannelOpener
         return chanType;
     }
 
-    /** Calls the listener with the new channel in a separate thread. */
-    protected void callListener(final ConnectListener listener, final Channel.Forwarded chan) {
-        new Thread() {
+    /** @return the executor listener callbacks are run on */
+    public Executor getExecutor() {
+        return executor;
+    }
 
-            {
-                setName("ConnectListener");
-            }
+    /**
+     * Set the executor to run listener callbacks on. If it rejects a callback, the channel is rejected.
+     *
+     * @param executor the executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
 
+    /** @return the maximum number of channels handled at a time */
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    /**
+     * Set the maximum number of channels handled at a time, beyond which channel opens are rejected.
+     *
+     * @param maxChannels maximum number of channels
+     */
+    public void setMaxChannels(int maxChannels) {
+        this.maxChannels = maxChannels;
+    }
+
+    /** @return the number of channels currently being handled, i.e. not yet rejected or closed */
+    public int getChannelCount() {
+        return channels.get();
+    }
+
+    /** Calls the listener with the new channel on the {@link #getExecutor() executor}. */
+    protected void callListener(final ConnectListener listener, final AbstractForwardedChannel chan)
+            throws TransportException {
+        if (channels.incrementAndGet() > maxChannels) {
+            channels.decrementAndGet();
+            log.warn("Rejecting {}: already handling {} channels", chan, maxChannels);
+            chan.reject(OpenFailException.Reason.RESOURCE_SHORTAGE, "Too many channels");
+            return;
+        }
+        chan.setCloseHook(new Runnable() {
             @Override
             public void run() {
-                try {
-                    listener.gotConnect(chan);
-                } catch (IOException logged) {
-                    log.warn("In callback to {}: {}", listener, logged);
-                    if (chan.isOpen())
-                        Util.closeQuietly(chan);
-                    else
-                        try {
-                            chan.reject(OpenFailException.Reason.CONNECT_FAILED, "");
-                        } catch (TransportException cantdonthn) {
-                            log.warn("Error rejecting {}: {}", chan, cantdonthn);
-                        }
-                }
+                channels.decrementAndGet();
             }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.gotConnect(chan);
+                    } catch (IOException logged) {
+                        log.warn("In callback to {}: {}", listener, logged);
+                        if (chan.isOpen())
+                            Util.closeQuietly(chan);
+                        else
+                            reject(chan, OpenFailException.Reason.CONNECT_FAILED, "");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Rejecting {}: executor is saturated", chan);
+            chan.reject(OpenFailException.Reason.RESOURCE_SHORTAGE, "Too many channels");
+        }
+    }
 
-        }.start();
+    private void reject(AbstractForwardedChannel chan, OpenFailException.Reason reason, String message) {
+        try {
+            chan.reject(reason, message);
+        } catch (TransportException cantdonthn) {
+            log.warn("Error rejecting {}: {}", chan, cantdonthn);
+        }
     }
 
 }
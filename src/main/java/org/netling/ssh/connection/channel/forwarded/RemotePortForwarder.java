@@ -200,7 +200,7 @@ public class RemotePortForwarder
 
     /**
      * Internal API. Creates a {@link ForwardedTCPIPChannel} from the {@code CHANNEL_OPEN} request and calls associated
-     * {@code ConnectListener} for that forward in a separate thread.
+     * {@code ConnectListener} for that forward on the {@link #getExecutor() executor}.
      */
     @Override
     public void handleOpen(SSHPacket buf)
@@ -35,6 +35,7 @@
  */
 package org.netling.ssh.transport;
 
+import org.netling.ssh.transport.cipher.AEADCipher;
 import org.netling.ssh.transport.cipher.Cipher;
 import org.netling.ssh.transport.cipher.NoneCipher;
 import org.netling.ssh.transport.compression.Compression;
@@ -58,6 +59,10 @@ import org.netling.ssh.transport.mac.MAC;
 abstract class Converter {
 
     protected Cipher cipher = new NoneCipher();
+    /** {@link #cipher} if it is an AEAD cipher, else {@code null}; there is no {@link #mac} in that case */
+    protected AEADCipher aead = null;
+    /** Whether {@link #mac} is computed over the encrypted packet, with the packet length left unencrypted */
+    protected boolean etm;
     protected MAC mac = null;
     protected Compression compression = null;
 
@@ -75,7 +80,9 @@ abstract class Converter {
         this.compression = compression;
         if (compression != null)
             compression.init(getCompressionType());
-        this.cipherSize = cipher.getIVSize();
+        this.aead = cipher instanceof AEADCipher ? (AEADCipher) cipher : null;
+        this.etm = mac != null && mac.isEncryptThenMac();
+        this.cipherSize = aead != null ? aead.getPaddingBlockSize() : cipher.getIVSize();
     }
 
     void setAuthenticated() {
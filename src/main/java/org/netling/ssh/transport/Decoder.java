@@ -35,6 +35,11 @@
  */
 package org.netling.ssh.transport;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
 import org.netling.ssh.common.ByteArrayUtils;
 import org.netling.ssh.common.DisconnectReason;
 import org.netling.ssh.common.SSHException;
@@ -94,7 +99,7 @@ final class Decoder
 
                 assert inputBuffer.rpos() == 0 : "buffer cleared";
 
-                need = cipherSize - inputBuffer.available();
+                need = (aead != null || etm ? 4 : cipherSize) - inputBuffer.available();
                 if (need <= 0)
                     packetLength = decryptLength();
                 else
@@ -105,15 +110,22 @@ final class Decoder
 
                 assert inputBuffer.rpos() == 4 : "packet length read";
 
-                need = packetLength + (mac != null ? mac.getBlockSize() : 0) - inputBuffer.available();
+                need = packetLength + getAuthSize() - inputBuffer.available();
                 if (need <= 0) {
 
-                    decryptPayload(inputBuffer.array());
-
                     seq = seq + 1 & 0xffffffffL;
 
-                    if (mac != null)
+                    if (aead != null)
+                        openPacket(inputBuffer.array());
+                    else if (etm) {
+                        // Reject forgeries before spending any effort on decryption
                         checkMAC(inputBuffer.array());
+                        decryptPayload(inputBuffer.array());
+                    } else {
+                        decryptPayload(inputBuffer.array());
+                        if (mac != null)
+                            checkMAC(inputBuffer.array());
+                    }
 
                     // Exclude the padding & MAC
                     inputBuffer.wpos(packetLength + 4 - inputBuffer.readByte());
@@ -146,6 +158,20 @@ final class Decoder
             throw new TransportException(DisconnectReason.MAC_ERROR, "MAC Error");
     }
 
+    private void openPacket(final byte[] data)
+            throws TransportException {
+        if (!aead.open(seq, data, 0, packetLength + 4))
+            throw new TransportException(DisconnectReason.MAC_ERROR, "MAC Error");
+    }
+
+    /** @return size of the MAC or authentication tag following each packet */
+    private int getAuthSize() {
+        if (aead != null)
+            return aead.getTagSize();
+        else
+            return mac != null ? mac.getBlockSize() : 0;
+    }
+
     private SSHPacket decompressed()
             throws TransportException {
         uncompressBuffer.clear();
@@ -155,9 +181,17 @@ final class Decoder
 
     private int decryptLength()
             throws TransportException {
-        cipher.update(inputBuffer.array(), 0, cipherSize);
-
-        final int len = inputBuffer.readInt(); // Read packet length
+        final int len; // Read packet length
+        if (aead != null) {
+            // The length field stays as received, it is authenticated along with the rest of the packet
+            len = aead.decryptLength(seq + 1 & 0xffffffffL, inputBuffer.array(), 0);
+            inputBuffer.rpos(4);
+        } else if (etm)
+            len = inputBuffer.readInt();
+        else {
+            cipher.update(inputBuffer.array(), 0, cipherSize);
+            len = inputBuffer.readInt();
+        }
 
         if (isInvalidPacketLength(len)) { // Check packet length validity
             log.info("Error decoding packet (invalid length) {}", inputBuffer.printHex());
@@ -172,30 +206,71 @@ final class Decoder
     }
 
     private void decryptPayload(final byte[] data) {
-        cipher.update(data, cipherSize, packetLength + 4 - cipherSize);
+        if (etm) // Packet length was not encrypted
+            cipher.update(data, 4, packetLength);
+        else // First block already decrypted
+            cipher.update(data, cipherSize, packetLength + 4 - cipherSize);
     }
 
     /**
-     * Adds {@code len} bytes from {@code b} to the decoder buffer. When a packet has been successfully decoded, hooks
-     * in to {@link SSHPacketHandler#handle} of the {@link SSHPacketHandler} this decoder was initialized with.
+     * Reads from {@code in} straight into the decoder buffer, at most as many bytes as are needed to make progress.
+     * When a packet has been successfully decoded, hooks in to {@link SSHPacketHandler#handle} of the {@link
+     * SSHPacketHandler} this decoder was initialized with.
      * <p/>
-     * Returns the number of bytes expected in the next call in order to decode the packet length, and if the packet
-     * length has already been decoded; to decode the payload. This number is accurate and should be taken to heart.
+     * Packets are decrypted and verified in place and the handler is passed a view over the decoder buffer, so
+     * received data is not copied on its way to the handler unless compression is in use.
+     *
+     * @param in the stream to read from
+     *
+     * @return number of bytes read, or {@code -1} if the end of the stream has been reached
+     *
+     * @throws IOException if there is an error reading from the stream, or decoding the data
      */
-    int received(byte[] b, int len)
+    int receive(InputStream in)
+            throws IOException {
+        inputBuffer.ensureCapacity(needed);
+        final int read = in.read(inputBuffer.array(), inputBuffer.wpos(), needed);
+        if (read > 0)
+            received(read);
+        return read;
+    }
+
+    /**
+     * Like {@link #receive(InputStream)} but for a channel, which may be in non-blocking mode.
+     *
+     * @param chan the channel to read from
+     *
+     * @return number of bytes read, possibly zero; or {@code -1} if the channel has reached end-of-stream
+     *
+     * @throws IOException if there is an error reading from the channel, or decoding the data
+     */
+    int receive(ReadableByteChannel chan)
+            throws IOException {
+        inputBuffer.ensureCapacity(needed);
+        final int read = chan.read(ByteBuffer.wrap(inputBuffer.array(), inputBuffer.wpos(), needed));
+        if (read > 0)
+            received(read);
+        return read;
+    }
+
+    /**
+     * Accounts for {@code len} bytes having been written into the decoder buffer, decoding as soon as {@link #needed}
+     * is satisfied.
+     */
+    private void received(int len)
             throws SSHException {
-        inputBuffer.putRawBytes(b, 0, len);
+        inputBuffer.wpos(inputBuffer.wpos() + len);
         if (needed <= len)
             needed = decode();
         else
             needed -= len;
-        return needed;
     }
 
     @Override
     void setAlgorithms(Cipher cipher, MAC mac, Compression compression) {
         super.setAlgorithms(cipher, mac, compression);
-        macResult = new byte[mac.getBlockSize()];
+        if (mac != null)
+            macResult = new byte[mac.getBlockSize()];
     }
 
     @Override
@@ -203,8 +278,4 @@ final class Decoder
         return Compression.Mode.INFLATE;
     }
 
-    int getMaxPacketLength() {
-        return MAX_PACKET_LEN;
-    }
-
 }
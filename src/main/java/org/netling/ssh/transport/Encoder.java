@@ -106,8 +106,8 @@ final class Encoder
 
             final int payloadSize = buffer.available();
 
-            // Compute padding length
-            int padLen = -(payloadSize + 5) & cipherSize - 1;
+            // Compute padding length; with an AEAD cipher or an ETM MAC the packet length field is not padded for
+            int padLen = -(payloadSize + (aead != null || etm ? 1 : 5)) & cipherSize - 1;
             if (padLen < cipherSize)
                 padLen += cipherSize;
 
@@ -126,10 +126,18 @@ final class Encoder
 
             seq = seq + 1 & 0xffffffffL;
 
-            if (mac != null)
+            if (aead != null) {
+                buffer.wpos(buffer.wpos() + aead.getTagSize());
+                aead.seal(seq, buffer.array(), startOfPacket, 4 + packetLen);
+            } else if (etm) {
+                cipher.update(buffer.array(), startOfPacket + 4, packetLen);
                 putMAC(buffer, startOfPacket, buffer.wpos());
+            } else {
+                if (mac != null)
+                    putMAC(buffer, startOfPacket, buffer.wpos());
 
-            cipher.update(buffer.array(), startOfPacket, 4 + packetLen);
+                cipher.update(buffer.array(), startOfPacket, 4 + packetLen);
+            }
 
             buffer.rpos(startOfPacket); // Make ready-to-read
 
@@ -139,6 +147,92 @@ final class Encoder
         }
     }
 
+    /**
+     * Encode a packet made up of {@code header} followed by {@code len} bytes of {@code data} into {@code out}. As far as
+     * the cipher allows, the data is encrypted straight from the caller's array into {@code out}, so it is copied just
+     * once on its way to the wire; only the cipher blocks it shares with the header or the padding get copied first.
+     *
+     * @param header the leading part of the payload, with 5 bytes available in front of it
+     * @param data   array holding the rest of the payload
+     * @param off    offset of the rest of the payload
+     * @param len    length of the rest of the payload
+     * @param out    buffer that the encoded packet is written to, which is ready-to-read once this method returns
+     *
+     * @return the sequence no. of encoded packet
+     */
+    long encode(SSHPacket header, byte[] data, int off, int len, SSHPacket out) {
+        encodeLock.lock();
+        try {
+            final int headerSize = header.available();
+            final int payloadSize = headerSize + len;
+
+            int padLen = -(payloadSize + (etm ? 1 : 5)) & cipherSize - 1;
+            if (padLen < cipherSize)
+                padLen += cipherSize;
+            final int packetLen = payloadSize + 1 + padLen;
+
+            // Leading part of the data that shares a cipher block with the header
+            final int encStart = etm ? 4 : 0;
+            final int head = Math.min(len, -(5 + headerSize - encStart) & cipherSize - 1);
+            // Part of the data that can be encrypted straight into out
+            final int direct = (len - head) & -cipherSize;
+
+            out.clear();
+            if (aead != null || usingCompression() || direct == 0) {
+                out.rpos(5);
+                out.wpos(5);
+                out.putRawBytes(header.array(), header.rpos(), headerSize);
+                out.putRawBytes(data, off, len);
+                return encode(out);
+            }
+
+            final int macSize = mac != null ? mac.getBlockSize() : 0;
+            out.ensureCapacity(4 + packetLen + macSize);
+            final byte[] buf = out.array();
+
+            if (log.isTraceEnabled())
+                log.trace("Encoding packet #{} with {} bytes of data", seq, len);
+
+            out.putInt(packetLen);
+            out.putByte((byte) padLen);
+            out.putRawBytes(header.array(), header.rpos(), headerSize);
+            out.putRawBytes(data, off, head);
+            final int startOfDirect = out.wpos();
+            final int startOfTail = startOfDirect + direct;
+            final int endOfPadding = 4 + packetLen;
+            out.wpos(startOfTail);
+            out.putRawBytes(data, off + head + direct, len - head - direct);
+            prng.fill(buf, out.wpos(), padLen);
+
+            seq = seq + 1 & 0xffffffffL;
+
+            if (!etm && mac != null) {
+                mac.update(seq);
+                mac.update(buf, 0, startOfDirect);
+                mac.update(data, off + head, direct);
+                mac.update(buf, startOfTail, endOfPadding - startOfTail);
+                mac.doFinal(buf, endOfPadding);
+            }
+
+            cipher.update(buf, encStart, startOfDirect - encStart);
+            cipher.update(data, off + head, direct, buf, startOfDirect);
+            cipher.update(buf, startOfTail, endOfPadding - startOfTail);
+
+            if (etm) {
+                mac.update(seq);
+                mac.update(buf, 0, endOfPadding);
+                mac.doFinal(buf, endOfPadding);
+            }
+
+            out.rpos(0);
+            out.wpos(endOfPadding + macSize);
+
+            return seq;
+        } finally {
+            encodeLock.unlock();
+        }
+    }
+
     @Override
     void setAlgorithms(Cipher cipher, MAC mac, Compression compression) {
         encodeLock.lock();
@@ -36,63 +36,81 @@
 
 package org.netling.ssh.transport;
 
+import java.util.concurrent.TimeUnit;
+
+import org.netling.concurrent.TimerWheel;
+import org.netling.ssh.common.BufferPool;
 import org.netling.ssh.common.Message;
 import org.netling.ssh.common.SSHPacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Sends a heartbeat ({@code SSH_MSG_IGNORE}) when nothing else has been written for an interval. Driven by the {@link
+ * TimerWheel#SHARED shared timer wheel} rather than a thread of its own.
+ */
 final class Heartbeater
-        extends Thread {
+        implements Runnable {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final TransportImpl trans;
 
     private int interval;
+    private TimerWheel.Timeout timeout;
+    /** Number of packets written as of the previous beat */
+    private long lastWritten;
 
     Heartbeater(TransportImpl trans) {
         this.trans = trans;
-        setName("heartbeater");
     }
 
     synchronized void setInterval(int interval) {
         this.interval = interval;
-        if (interval > 0 && getState() == Thread.State.NEW)
-            start();
-        notify();
+        lastWritten = trans.getWrittenPacketCount();
+        reschedule();
     }
 
     synchronized int getInterval() {
         return interval;
     }
 
-    synchronized private int getPositiveInterval()
-            throws InterruptedException {
-        while (interval <= 0)
-            wait();
-        return interval;
+    synchronized void stop() {
+        interval = 0;
+        reschedule();
     }
 
     @Override
     public void run() {
-        log.debug("Starting");
+        synchronized (this) {
+            if (interval <= 0)
+                return;
+            reschedule();
+            final long written = trans.getWrittenPacketCount();
+            final boolean idle = written == lastWritten;
+            lastWritten = written;
+            if (!idle || !trans.isRunning())
+                return;
+        }
+        log.info("Sending heartbeat since nothing was written for {} seconds", interval);
+        final SSHPacket packet = new SSHPacket(Message.IGNORE, BufferPool.SHARED);
         try {
-            while (!isInterrupted()) {
-                final int hi = getPositiveInterval();
-                if (trans.isRunning()) {
-                    log.info("Sending heartbeat since {} seconds elapsed", hi);
-                    trans.write(new SSHPacket(Message.IGNORE));
-                }
-                Thread.sleep(hi * 1000);
+            trans.write(packet);
+            synchronized (this) {
+                lastWritten = trans.getWrittenPacketCount(); // Not to count the heartbeat as traffic
             }
-        } catch (Exception e) {
-            if (isInterrupted()) {
-                // We are meant to shut up and draw to a close if interrupted
-            } else
-                trans.die(e);
+        } catch (TransportException e) {
+            trans.die(e);
+        } finally {
+            packet.release();
         }
+    }
 
-        log.debug("Stopping");
+    /** Must be called with the monitor held. */
+    private void reschedule() {
+        if (timeout != null)
+            timeout.cancel();
+        timeout = interval > 0 ? TimerWheel.SHARED.schedule(this, interval, TimeUnit.SECONDS) : null;
     }
 
 }
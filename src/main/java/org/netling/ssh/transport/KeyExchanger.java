@@ -322,13 +322,8 @@ final class KeyExchanger
                         resizedKey(encryptionKey_S2C, cipher_S2C.getBlockSize(), hash, kex.getK(), kex.getH()),
                         initialIV_S2C);
 
-        final MAC mac_C2S = Factory.Named.Util.create(transport.getConfig().getMACFactories(), negotiatedAlgs
-                .getClient2ServerMACAlgorithm());
-        mac_C2S.init(integrityKey_C2S);
-
-        final MAC mac_S2C = Factory.Named.Util.create(transport.getConfig().getMACFactories(),
-                                                      negotiatedAlgs.getServer2ClientMACAlgorithm());
-        mac_S2C.init(integrityKey_S2C);
+        final MAC mac_C2S = createMAC(negotiatedAlgs.getClient2ServerMACAlgorithm(), integrityKey_C2S);
+        final MAC mac_S2C = createMAC(negotiatedAlgs.getServer2ClientMACAlgorithm(), integrityKey_S2C);
 
         final Compression compression_S2C = Factory.Named.Util.create(transport.getConfig().getCompressionFactories(),
                                                                       negotiatedAlgs.getServer2ClientCompressionAlgorithm());
@@ -339,6 +334,15 @@ final class KeyExchanger
         transport.getDecoder().setAlgorithms(cipher_S2C, mac_S2C, compression_S2C);
     }
 
+    /** @return initialized MAC, or {@code null} if none was negotiated since the cipher is an AEAD cipher */
+    private MAC createMAC(String name, byte[] key) {
+        if (name == null)
+            return null;
+        final MAC mac = Factory.Named.Util.create(transport.getConfig().getMACFactories(), name);
+        mac.init(resizedKey(key, mac.getKeySize(), kex.getHash(), kex.getK(), kex.getH()));
+        return mac;
+    }
+
     @Override
     public void handle(Message msg, SSHPacket buf)
             throws TransportException {
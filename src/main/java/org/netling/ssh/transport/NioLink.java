@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects a {@link TransportImpl} to a non-blocking {@link SocketChannel} serviced by a {@link SelectorPool} thread.
+ * <p/>
+ * Incoming data is fed to the transport's {@link Decoder} on the selector thread. Outgoing data is written through
+ * this {@link OutputStream}: whatever the socket does not accept straight away is queued and written out by the
+ * selector thread once the socket becomes writable again. Once more than {@link #MAX_PENDING_BYTES} are queued, writers
+ * wait for the selector thread to drain the queue; the selector thread itself never waits.
+ */
+final class NioLink
+        extends OutputStream {
+
+    /** Limit on reads per readiness notification, so that one busy connection cannot starve the others */
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    /** Amount of queued outgoing data beyond which writers wait for the socket to catch up */
+    static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final TransportImpl trans;
+    private final SocketChannel chan;
+    private final SelectorPool.Worker worker;
+
+    /** Outgoing data the socket has not accepted yet; guarded by {@code this} */
+    private final Queue<ByteBuffer> pending = new LinkedList<ByteBuffer>();
+    /** Number of bytes remaining in {@link #pending}; guarded by {@code this}, which writers wait on when it is high */
+    private long pendingBytes;
+
+    private volatile SelectionKey key;
+    private volatile boolean closed;
+
+    NioLink(TransportImpl trans, SocketChannel chan, SelectorPool pool)
+            throws IOException {
+        this.trans = trans;
+        this.chan = chan;
+        this.worker = pool.nextWorker();
+        chan.configureBlocking(false);
+    }
+
+    /** Starts servicing the channel; packets may be received from here on. */
+    void start() {
+        worker.register(this);
+    }
+
+    SocketChannel getChannel() {
+        return chan;
+    }
+
+    boolean isOpen() {
+        return !closed && chan.isOpen();
+    }
+
+    void registered(SelectionKey key) {
+        this.key = key;
+        if (closed)
+            key.cancel();
+        else
+            synchronized (this) {
+                if (!pending.isEmpty())
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+    }
+
+    /** Called on the selector thread when the channel has data for us. */
+    void onReadable() {
+        try {
+            final Decoder decoder = trans.getDecoder();
+            for (int i = 0; i < MAX_READS_PER_SELECT && !closed; i++) {
+                final int read = decoder.receive(chan);
+                if (read == -1)
+                    throw new TransportException("Broken transport; encountered EOF");
+                else if (read == 0)
+                    break;
+            }
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    /** Called on the selector thread when the channel can take more data. */
+    synchronized void onWritable() {
+        try {
+            try {
+                while (!pending.isEmpty()) {
+                    final ByteBuffer bb = pending.peek();
+                    pendingBytes -= chan.write(bb);
+                    if (bb.hasRemaining())
+                        return;
+                    pending.remove();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } finally {
+                if (pendingBytes <= MAX_PENDING_BYTES)
+                    notifyAll();
+            }
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    /** Called on the selector thread in response to {@link SelectorPool.Worker#wantWrite}. */
+    synchronized void selectForWrite() {
+        if (key != null && key.isValid() && !pending.isEmpty())
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    void failed(Exception e) {
+        if (!closed) {
+            log.debug("Link failed: {}", e.toString());
+            trans.die(e);
+        }
+    }
+
+    @Override
+    public synchronized void write(int b)
+            throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+        if (Thread.currentThread() != worker)
+            while (pendingBytes > MAX_PENDING_BYTES && !closed)
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+        if (closed)
+            throw new TransportException("Link closed");
+        if (pending.isEmpty()) {
+            final ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+            chan.write(bb);
+            if (!bb.hasRemaining())
+                return;
+            off = bb.position();
+            len = bb.remaining();
+        }
+        // The caller may reuse the array once we return
+        pending.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        pendingBytes += len;
+        worker.wantWrite(this);
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        closed = true;
+        final SelectionKey key = this.key;
+        if (key != null)
+            key.cancel();
+        chan.close();
+        synchronized (this) {
+            notifyAll(); // Writers waiting for the queue to drain
+        }
+    }
+
+}
@@ -36,12 +36,17 @@
 package org.netling.ssh.transport;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.netling.ssh.Config;
 import org.netling.ssh.common.Factory;
 import org.netling.ssh.common.Message;
 import org.netling.ssh.common.SSHPacket;
+import org.netling.ssh.transport.cipher.AEADCipher;
+import org.netling.ssh.transport.cipher.Cipher;
 
 class Proposal {
 
@@ -54,6 +59,8 @@ class Proposal {
     private final List<String> c2sComp;
     private final List<String> s2cComp;
     private final SSHPacket packet;
+    /** Ciphers for which no MAC is negotiated, as they provide integrity themselves */
+    private final Set<String> aeadCiphers = new HashSet<String>();
 
     public Proposal(Config config) {
         kex = Factory.Named.Util.getNames(config.getKeyExchangeFactories());
@@ -61,6 +68,9 @@ class Proposal {
         c2sCipher = s2cCipher = Factory.Named.Util.getNames(config.getCipherFactories());
         c2sMAC = s2cMAC = Factory.Named.Util.getNames(config.getMACFactories());
         c2sComp = s2cComp = Factory.Named.Util.getNames(config.getCompressionFactories());
+        for (Factory.Named<Cipher> f : config.getCipherFactories())
+            if (f.create() instanceof AEADCipher)
+                aeadCiphers.add(f.getName());
 
         packet = new SSHPacket(Message.KEXINIT);
 
@@ -136,15 +146,27 @@ class Proposal {
         return new SSHPacket(packet);
     }
 
+    /**
+     * Negotiates algorithms with the {@code other} proposal. If an {@link AEADCipher} is chosen for a direction, the
+     * MAC algorithm for that direction is not negotiated and is {@code null}.
+     */
     public NegotiatedAlgorithms negotiate(Proposal other)
             throws TransportException {
+        final String c2sCipher = firstMatch(this.getClient2ServerCipherAlgorithms(),
+                                            other.getClient2ServerCipherAlgorithms());
+        final String s2cCipher = firstMatch(this.getServer2ClientCipherAlgorithms(),
+                                            other.getServer2ClientCipherAlgorithms());
         return new NegotiatedAlgorithms(
                 firstMatch(this.getKeyExchangeAlgorithms(), other.getKeyExchangeAlgorithms()), //
                 firstMatch(this.getSignatureAlgorithms(), other.getSignatureAlgorithms()), //
-                firstMatch(this.getClient2ServerCipherAlgorithms(), other.getClient2ServerCipherAlgorithms()), //
-                firstMatch(this.getServer2ClientCipherAlgorithms(), other.getServer2ClientCipherAlgorithms()), //
-                firstMatch(this.getClient2ServerMACAlgorithms(), other.getClient2ServerMACAlgorithms()), //
-                firstMatch(this.getServer2ClientMACAlgorithms(), other.getServer2ClientMACAlgorithms()), //
+                c2sCipher, //
+                s2cCipher, //
+                aeadCiphers.contains(c2sCipher) ? null
+                                                : firstMatch(this.getClient2ServerMACAlgorithms(),
+                                                             other.getClient2ServerMACAlgorithms()), //
+                aeadCiphers.contains(s2cCipher) ? null
+                                                : firstMatch(this.getServer2ClientMACAlgorithms(),
+                                                             other.getServer2ClientMACAlgorithms()), //
                 firstMatch(this.getClient2ServerCompressionAlgorithms(), other.getClient2ServerCompressionAlgorithms()), //
                 firstMatch(this.getServer2ClientCompressionAlgorithms(), other.getServer2ClientCompressionAlgorithms()) //
         );
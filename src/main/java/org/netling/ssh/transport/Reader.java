@@ -60,17 +60,9 @@ public final class Reader
             final Decoder decoder = trans.getDecoder();
             final InputStream inp = trans.getConnInfo().in;
 
-            final byte[] recvbuf = new byte[decoder.getMaxPacketLength()];
-
-            int needed = 1;
-
-            while (!isInterrupted()) {
-                int read = inp.read(recvbuf, 0, needed);
-                if (read == -1)
+            while (!isInterrupted())
+                if (decoder.receive(inp) == -1)
                     throw new TransportException("Broken transport; encountered EOF");
-                else
-                    needed = decoder.received(recvbuf, read);
-            }
 
         } catch (Exception e) {
             if (isInterrupted()) {
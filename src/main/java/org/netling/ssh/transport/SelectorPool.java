@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of selector threads which service the I/O of any number of {@link Transport transports} operating in
+ * non-blocking mode. The number of threads stays constant however many connections are open, as opposed to the
+ * default mode where every transport has a dedicated {@link Reader} thread.
+ * <p/>
+ * A single pool is meant to be shared, e.g. between many {@link org.netling.ssh.SSHClient SSHClient} instances via
+ * {@link org.netling.ssh.SSHClient#useSelectorPool}. Incoming packets are decoded and handled on the selector thread
+ * the connection has been assigned to, so packet handlers must not block for long.
+ * <p/>
+ * The pool should only be {@link #close() closed} once the transports using it have been disconnected; any transport
+ * still registered at that point is notified of an error.
+ */
+public final class SelectorPool
+        implements Closeable {
+
+    /** A selector thread, to which connections are assigned round-robin. */
+    final class Worker
+            extends Thread {
+
+        private final Selector selector;
+
+        /** Links waiting to be registered with {@link #selector} */
+        private final Queue<NioLink> registrations = new ConcurrentLinkedQueue<NioLink>();
+
+        /** Links which have queued outgoing data, and so need to be selected for writability */
+        private final Queue<NioLink> writers = new ConcurrentLinkedQueue<NioLink>();
+
+        Worker(int index)
+                throws IOException {
+            selector = Selector.open();
+            setName("selector-" + index);
+            setDaemon(true);
+        }
+
+        void register(NioLink link) {
+            registrations.add(link);
+            selector.wakeup();
+        }
+
+        void wantWrite(NioLink link) {
+            writers.add(link);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            log.debug("Starting");
+            try {
+                while (!isInterrupted()) {
+                    selector.select();
+                    processRegistrations();
+                    processWriters();
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final NioLink link = (NioLink) key.attachment();
+                        if (key.isValid() && key.isReadable())
+                            link.onReadable();
+                        if (key.isValid() && key.isWritable())
+                            link.onWritable();
+                    }
+                }
+            } catch (IOException e) {
+                if (!isInterrupted())
+                    log.error("Selector failed: {}", e.toString());
+            } finally {
+                shutdown();
+            }
+            log.debug("Stopping");
+        }
+
+        private void processRegistrations() {
+            NioLink link;
+            while ((link = registrations.poll()) != null)
+                try {
+                    link.registered(link.getChannel().register(selector, SelectionKey.OP_READ, link));
+                } catch (ClosedChannelException e) {
+                    link.failed(e);
+                }
+        }
+
+        private void processWriters() {
+            NioLink link;
+            while ((link = writers.poll()) != null)
+                link.selectForWrite();
+        }
+
+        private void shutdown() {
+            final TransportException closed = new TransportException("Selector pool closed");
+            for (SelectionKey key : selector.keys())
+                ((NioLink) key.attachment()).failed(closed);
+            NioLink link;
+            while ((link = registrations.poll()) != null)
+                link.failed(closed);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Worker[] workers;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a pool with as many selector threads as there are available processors.
+     *
+     * @throws IOException if a selector could not be opened
+     */
+    public SelectorPool()
+            throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pool with the specified number of selector threads.
+     *
+     * @param threads number of selector threads
+     *
+     * @throws IOException if a selector could not be opened
+     */
+    public SelectorPool(int threads)
+            throws IOException {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Need at least one selector thread");
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++)
+            workers[i] = new Worker(i);
+        for (Worker worker : workers)
+            worker.start();
+    }
+
+    /** @return the number of selector threads in this pool */
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    /** Stops all the selector threads. */
+    @Override
+    public void close() {
+        for (Worker worker : workers) {
+            worker.interrupt();
+            worker.selector.wakeup();
+        }
+    }
+
+    Worker nextWorker() {
+        return workers[(next.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+    }
+
+}
@@ -37,6 +37,7 @@ package org.netling.ssh.transport;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
 
 import org.netling.ssh.Config;
 import org.netling.ssh.Service;
@@ -63,6 +64,21 @@ public interface Transport
     void init(String host, int port, InputStream in, OutputStream out)
             throws TransportException;
 
+    /**
+     * Like {@link #init(String, int, InputStream, OutputStream)}, except that after the exchange of identification
+     * information the {@code channel} is switched to non-blocking mode and serviced by one of the threads of the
+     * specified {@link SelectorPool}, instead of a dedicated reader thread.
+     *
+     * @param host    server's hostname
+     * @param port    server's port
+     * @param channel connected socket channel in blocking mode
+     * @param pool    selector pool that will service the channel
+     *
+     * @throws TransportException if there is an error during exchange of identification information
+     */
+    void init(String host, int port, SocketChannel channel, SelectorPool pool)
+            throws TransportException;
+
     /**
      * Adds the specified verifier.
      *
@@ -94,7 +110,10 @@ public interface Transport
      */
     void setTimeout(int timeout);
 
-    /** @return the interval in seconds at which a heartbeat message is sent to the server */
+    /**
+     * @return the interval in seconds at which a heartbeat message is sent to the server, unless other packets have
+     *         been written meanwhile
+     */
     int getHeartbeatInterval();
 
     /** @param interval the interval in seconds, {@code 0} means no hearbeat */
@@ -202,13 +221,51 @@ public interface Transport
      * <p/>
      * The {@code payload} {@link SSHPacket} should have 5 bytes free at the beginning to avoid a performance penalty
      * associated with making space for header bytes (packet length, padding length).
+     * <p/>
+     * The {@code payload} is not referenced once this method returns, so a pooled packet may be {@link
+     * SSHPacket#release() released} then.
+     * <p/>
+     * Other than transport-layer packets can only be sent once an ongoing key exchange has completed, and callers wait
+     * for that; except when called while handling an incoming packet, in which case the packet is sent later.
      *
      * @param payload the {@link SSHPacket} containing data to send
      *
-     * @return sequence number of the sent packet
+     * @return sequence number of the sent packet, or -1 if it has been queued to be sent after key exchange
      *
      * @throws TransportException if an error occurred sending the packet
      */
     long write(SSHPacket payload)
             throws TransportException;
+
+    /**
+     * Like {@link #write(SSHPacket)}, for a packet whose payload is made up of {@code header} followed by {@code len}
+     * bytes of {@code data}. The data is encoded straight from the caller's array, sparing a copy into a packet of its
+     * own; neither is referenced once this method returns.
+     *
+     * @param header the leading part of the payload, with 5 bytes available in front of it for the packet header
+     * @param data   array holding the rest of the payload
+     * @param off    offset of the rest of the payload
+     * @param len    length of the rest of the payload
+     *
+     * @return sequence number of the sent packet, or -1 if it has been queued to be sent after key exchange
+     *
+     * @throws TransportException if an error occurred sending the packet
+     */
+    long write(SSHPacket header, byte[] data, int off, int len)
+            throws TransportException;
+
+    /** @return the number of packets written over this transport */
+    long getWrittenPacketCount();
+
+    /** @return the number of packets received over this transport */
+    long getReceivedPacketCount();
+
+    /**
+     * Written packets are gathered and flushed to the underlying stream together when several threads are writing
+     * concurrently. Compared with {@link #getWrittenPacketCount()}, this shows how well writes are being coalesced.
+     *
+     * @return the number of times written packets were flushed
+     */
+    long getFlushCount();
+
 }
@@ -35,10 +35,16 @@
  */
 package org.netling.ssh.transport;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.netling.concurrent.Event;
@@ -81,6 +87,12 @@ public final class TransportImpl
         }
     }
 
+    /** Size of the buffer outgoing packets are gathered in before being written out */
+    private static final int OUTBOUND_BUFFER_SIZE = 32 * 1024;
+
+    /** Longest time (in nanoseconds) written packets are held back while other threads keep writing */
+    private static final long MAX_FLUSH_DELAY = TimeUnit.MILLISECONDS.toNanos(5);
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final Service nullService = new NullService(this);
@@ -115,6 +127,9 @@ public final class TransportImpl
 
     private ConnInfo connInfo;
 
+    /** Non-null if the connection is serviced by a {@link SelectorPool} rather than {@link #reader} */
+    private volatile NioLink link;
+
     /** Server version identification string */
     private String serverID;
 
@@ -123,6 +138,31 @@ public final class TransportImpl
 
     private final ReentrantLock writeLock = new ReentrantLock();
 
+    /** Number of threads waiting for {@link #writeLock} in {@link #write} */
+    private final AtomicInteger queuedWriters = new AtomicInteger();
+
+    /** Orders writers of channel packets; guarded by {@link #writeLock} */
+    private final WriteScheduler scheduler = new WriteScheduler(writeLock);
+
+    /**
+     * Packets written by the packet handling thread while key exchange was ongoing; sent once it has completed, as that
+     * thread must not wait for it. Guarded by {@link #writeLock}
+     */
+    private final Queue<SSHPacket> deferred = new LinkedList<SSHPacket>();
+
+    /** Buffer that packets written from the caller's array are encoded into; guarded by {@link #writeLock} */
+    private final SSHPacket outbound = new SSHPacket(SSHPacket.DEFAULT_SIZE);
+
+    /** The thread that {@link #handle handles} incoming packets */
+    private volatile Thread handler;
+
+    /** When the oldest packet that has not been flushed was written, or -1; guarded by {@link #writeLock} */
+    private long unflushedSince = -1;
+
+    private volatile long writtenPackets;
+    private volatile long receivedPackets;
+    private volatile long flushes;
+
     public TransportImpl(Config config) {
         this.config = config;
         this.reader = new Reader(this);
@@ -137,7 +177,30 @@ public final class TransportImpl
     public void init(String remoteHost, int remotePort, InputStream in, OutputStream out)
             throws TransportException {
         connInfo = new ConnInfo(remoteHost, remotePort, in, out);
+        exchangeIdentification();
+        connInfo = new ConnInfo(remoteHost, remotePort, in, new BufferedOutputStream(out, OUTBOUND_BUFFER_SIZE));
+        reader.start();
+    }
+
+    @Override
+    public void init(String remoteHost, int remotePort, SocketChannel channel, SelectorPool pool)
+            throws TransportException {
+        connInfo = new ConnInfo(remoteHost, remotePort, Channels.newInputStream(channel),
+                                Channels.newOutputStream(channel));
+        exchangeIdentification();
+        try {
+            link = new NioLink(this, channel, pool);
+        } catch (IOException e) {
+            throw new TransportException(e);
+        }
+        // Identification done in blocking mode, all further output goes through the link
+        connInfo = new ConnInfo(remoteHost, remotePort, connInfo.in,
+                                new BufferedOutputStream(link, OUTBOUND_BUFFER_SIZE));
+        link.start();
+    }
 
+    private void exchangeIdentification()
+            throws TransportException {
         try {
 
             log.info("Client identity string: {}", clientID);
@@ -154,8 +217,6 @@ public final class TransportImpl
         } catch (IOException e) {
             throw new TransportException(e);
         }
-
-        reader.start();
     }
 
     /**
@@ -349,7 +410,8 @@ public final class TransportImpl
 
     @Override
     public boolean isRunning() {
-        return reader.isAlive() && !close.isSet();
+        final NioLink link = this.link;
+        return (link != null ? link.isOpen() : reader.isAlive()) && !close.isSet();
     }
 
     @Override
@@ -381,37 +443,150 @@ public final class TransportImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Packets are gathered in a buffer and only flushed once no other thread is waiting to write, the buffer fills up,
+     * or the oldest buffered packet has been held back for {@link #MAX_FLUSH_DELAY}; so that concurrent writers share
+     * system calls and TCP segments. When several threads are waiting to write, a {@link WriteScheduler} interleaves
+     * packets of different channels.
+     */
     @Override
     public long write(SSHPacket payload)
             throws TransportException {
+        return write(payload, null, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Gathered and scheduled like packets written through {@link #write(SSHPacket)}.
+     */
+    @Override
+    public long write(SSHPacket header, byte[] data, int off, int len)
+            throws TransportException {
+        final boolean fromHandler = Thread.currentThread() == handler;
+        // Only transport layer packets (1 to 49) allowed during kex, except SERVICE_REQUEST
+        final boolean scheduled = WriteScheduler.isScheduled(header);
+        queuedWriters.incrementAndGet();
         writeLock.lock();
+        queuedWriters.decrementAndGet();
+        // The handler thread is not scheduled, as a writer whose turn it is may be waiting on it to complete kex
+        final WriteScheduler.Turn turn =
+                scheduled && !fromHandler ? scheduler.enqueue(header, header.available() + len) : null;
         try {
+            if (turn != null)
+                scheduler.await(turn);
 
             if (kexer.isKexOngoing()) {
-                // Only transport layer packets (1 to 49) allowed except SERVICE_REQUEST
-                final Message m = Message.fromByte(payload.array()[payload.rpos()]);
-                if (!m.in(1, 49) || m == Message.SERVICE_REQUEST) {
-                    assert m != Message.KEXINIT;
+                if (scheduled) {
+                    assert Message.fromByte(header.array()[header.rpos()]) != Message.KEXINIT;
+                    if (fromHandler) {
+                        final SSHPacket copy = new SSHPacket(header);
+                        if (data != null)
+                            copy.putRawBytes(data, off, len);
+                        deferred.add(copy);
+                        return -1;
+                    }
+                    // Don't hold back what has been written while we wait
+                    flush();
                     kexer.waitForDone();
                 }
             } else if (encoder.getSequenceNumber() == 0) // We get here every 2**32th packet
                 kexer.startKex(true);
 
-            final long seq = encoder.encode(payload);
-            try {
-                connInfo.out.write(payload.array(), payload.rpos(), payload.available());
-                connInfo.out.flush();
-            } catch (IOException ioe) {
-                throw new TransportException(ioe);
-            }
+            final long seq = data == null ? send(header) : send(header, data, off, len);
+            if (queuedWriters.get() == 0 && !scheduler.hasWaiting()
+                || System.nanoTime() - unflushedSince >= MAX_FLUSH_DELAY)
+                flush();
 
             return seq;
 
+        } finally {
+            if (turn != null)
+                scheduler.done(turn);
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public long getWrittenPacketCount() {
+        return writtenPackets;
+    }
+
+    @Override
+    public long getReceivedPacketCount() {
+        return receivedPackets;
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushes;
+    }
+
+    /** Encodes and writes out a packet. Must be called with {@link #writeLock} held. */
+    private long send(SSHPacket payload)
+            throws TransportException {
+        final long seq = encoder.encode(payload);
+        try {
+            connInfo.out.write(payload.array(), payload.rpos(), payload.available());
+        } catch (IOException ioe) {
+            throw new TransportException(ioe);
+        }
+        writtenPackets++;
+        if (unflushedSince == -1)
+            unflushedSince = System.nanoTime();
+        return seq;
+    }
+
+    /**
+     * Encodes a packet made up of {@code header} and {@code data} into {@link #outbound}, and writes it out. Must be
+     * called with {@link #writeLock} held.
+     */
+    private long send(SSHPacket header, byte[] data, int off, int len)
+            throws TransportException {
+        final long seq = encoder.encode(header, data, off, len, outbound);
+        try {
+            connInfo.out.write(outbound.array(), outbound.rpos(), outbound.available());
+        } catch (IOException ioe) {
+            throw new TransportException(ioe);
+        }
+        writtenPackets++;
+        if (unflushedSince == -1)
+            unflushedSince = System.nanoTime();
+        return seq;
+    }
+
+    /** Sends the packets {@link #deferred} during key exchange, once it has completed. */
+    private void sendDeferred()
+            throws TransportException {
+        writeLock.lock();
+        try {
+            if (deferred.isEmpty() || kexer.isKexOngoing())
+                return;
+            SSHPacket packet;
+            while ((packet = deferred.poll()) != null)
+                send(packet);
+            flush();
         } finally {
             writeLock.unlock();
         }
     }
 
+    /** Flushes the packets gathered so far. Must be called with {@link #writeLock} held. */
+    private void flush()
+            throws TransportException {
+        if (unflushedSince == -1)
+            return;
+        try {
+            connInfo.out.flush();
+        } catch (IOException ioe) {
+            throw new TransportException(ioe);
+        }
+        unflushedSince = -1;
+        flushes++;
+    }
+
     private void sendDisconnect(DisconnectReason reason, String message) {
         if (message == null)
             message = "";
@@ -433,8 +608,8 @@ public final class TransportImpl
      * Even among the transport layer specific packets, key exchange packets are delegated to {@link
      * KeyExchanger#handle}.
      * <p/>
-     * This method is called in the context of the {@link #reader} thread via {@link Decoder#received} when a full
-     * packet has been decoded.
+     * This method is called in the context of the {@link #reader} thread, or of a {@link SelectorPool} thread if the
+     * transport was initialized with one, via {@link Decoder#received} when a full packet has been decoded.
      *
      * @param msg the message identifer
      * @param buf buffer containg rest of the packet
@@ -445,14 +620,18 @@ public final class TransportImpl
     public void handle(Message msg, SSHPacket buf)
             throws SSHException {
         this.msg = msg;
+        handler = Thread.currentThread();
+        receivedPackets++;
 
         log.trace("Received packet {}", msg);
 
         if (msg.geq(50)) // not a transport layer packet
             service.handle(msg, buf);
 
-        else if (msg.in(20, 21) || msg.in(30, 49)) // kex packet
+        else if (msg.in(20, 21) || msg.in(30, 49)) { // kex packet
             kexer.handle(msg, buf);
+            sendDeferred();
+        }
 
         else
             switch (msg) {
@@ -526,7 +705,7 @@ public final class TransportImpl
 
     private void finishOff() {
         reader.interrupt();
-        heartbeater.interrupt();
+        heartbeater.stop();
         Util.closeQuietly(connInfo.in);
         Util.closeQuietly(connInfo.out);
     }
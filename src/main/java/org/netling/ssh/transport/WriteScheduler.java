@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+import org.netling.ssh.common.Message;
+import org.netling.ssh.common.SSHPacket;
+
+/**
+ * Decides the order in which threads get to write their packet when several are waiting in {@link
+ * TransportImpl#write}, so that a channel moving bulk data cannot hog the connection.
+ * <p/>
+ * Connection-layer control packets (window adjustments, channel requests, EOF etc.) go first. Channel data is
+ * scheduled by deficit round-robin across channels: each channel with waiting packets is visited in turn and may send
+ * up to {@link #QUANTUM} bytes per round, so an interactive channel waits behind at most one packet of each busy
+ * channel rather than behind all of them.
+ * <p/>
+ * Transport-layer packets are not scheduled; they must be able to get through while a writer that has its turn waits
+ * for key exchange to complete. All methods must be called with the lock this scheduler was created with held.
+ */
+final class WriteScheduler {
+
+    /** A packet waiting for its turn to be written */
+    static final class Turn {
+
+        private final int size;
+        private Condition cond;
+
+        private Turn(int size) {
+            this.size = size;
+        }
+
+    }
+
+    /** Channel data waiting to be written for one channel */
+    private static final class Flow {
+
+        private final int recipient;
+        private final Queue<Turn> turns = new LinkedList<Turn>();
+        private int deficit;
+
+        private Flow(int recipient) {
+            this.recipient = recipient;
+        }
+
+    }
+
+    /** Number of bytes each channel may send per round; no smaller than the largest channel data packet we send */
+    static final int QUANTUM = 32 * 1024 + 64;
+
+    private final Lock lock;
+
+    private final Queue<Turn> control = new LinkedList<Turn>();
+    private final Map<Integer, Flow> flows = new HashMap<Integer, Flow>();
+    /** Flows with waiting packets, in round-robin order */
+    private final LinkedList<Flow> active = new LinkedList<Flow>();
+
+    /** The packet being written, or {@code null} */
+    private Turn current;
+
+    WriteScheduler(Lock lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * @param payload packet about to be written
+     *
+     * @return whether the packet is to be {@link #enqueue(SSHPacket) scheduled}, i.e. is not a transport-layer packet
+     */
+    static boolean isScheduled(SSHPacket payload) {
+        final Message m = Message.fromByte(payload.array()[payload.rpos()]);
+        return !m.in(1, 49) || m == Message.SERVICE_REQUEST;
+    }
+
+    /**
+     * Queues a packet for writing. If no other packet is being written or waiting, it gets its turn straight away.
+     *
+     * @param payload packet to be written
+     *
+     * @return the turn to {@link #await} and to pass to {@link #done} once written
+     */
+    Turn enqueue(SSHPacket payload) {
+        return enqueue(payload, payload.available());
+    }
+
+    /**
+     * Like {@link #enqueue(SSHPacket)}, for a packet of which {@code payload} only holds the leading part.
+     *
+     * @param payload the leading part of the packet to be written
+     * @param size    size of the whole packet
+     *
+     * @return the turn to {@link #await} and to pass to {@link #done} once written
+     */
+    Turn enqueue(SSHPacket payload, int size) {
+        final Turn turn = new Turn(size);
+        if (current == null) {
+            current = turn;
+            return turn;
+        }
+        final Message m = Message.fromByte(payload.array()[payload.rpos()]);
+        if (m == Message.CHANNEL_DATA || m == Message.CHANNEL_EXTENDED_DATA) {
+            final int recipient = readInt(payload.array(), payload.rpos() + 1);
+            Flow flow = flows.get(recipient);
+            if (flow == null) {
+                flow = new Flow(recipient);
+                flow.deficit = QUANTUM;
+                flows.put(recipient, flow);
+                active.add(flow);
+            }
+            flow.turns.add(turn);
+        } else
+            control.add(turn);
+        return turn;
+    }
+
+    /** Waits until it is the specified turn's time to write, releasing the lock meanwhile. */
+    void await(Turn turn) {
+        while (current != turn) {
+            if (turn.cond == null)
+                turn.cond = lock.newCondition();
+            turn.cond.awaitUninterruptibly();
+        }
+    }
+
+    /** Ends the specified turn, and hands over to the next waiting packet if any. */
+    void done(Turn turn) {
+        assert current == turn;
+        current = next();
+        if (current != null && current.cond != null)
+            current.cond.signal();
+    }
+
+    /** @return whether any packets are waiting for their turn */
+    boolean hasWaiting() {
+        return !control.isEmpty() || !active.isEmpty();
+    }
+
+    /** @return whether the specified turn is the one to write now */
+    boolean isCurrent(Turn turn) {
+        return current == turn;
+    }
+
+    private Turn next() {
+        final Turn turn = control.poll();
+        if (turn != null)
+            return turn;
+        for (; ;) {
+            final Flow flow = active.peek();
+            if (flow == null)
+                return null;
+            final Turn head = flow.turns.peek();
+            if (flow.deficit >= head.size) {
+                flow.deficit -= head.size;
+                flow.turns.remove();
+                if (flow.turns.isEmpty()) {
+                    active.remove();
+                    flows.remove(flow.recipient);
+                }
+                return head;
+            }
+            // Used up its share for this round
+            flow.deficit += QUANTUM;
+            active.add(active.remove());
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) & 0xff000000 | (b[off + 1] << 16) & 0x00ff0000
+               | (b[off + 2] << 8) & 0x0000ff00 | b[off + 3] & 0x000000ff;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport.cipher;
+
+/**
+ * A cipher which also authenticates the data it encrypts, so that no separate {@link
+ * org.netling.ssh.transport.mac.MAC MAC} is used alongside it.
+ * <p/>
+ * Such ciphers operate on whole packets rather than on a stream of blocks, and an authentication tag of {@link
+ * #getTagSize()} bytes follows each packet. The 4-byte packet length is authenticated but is not part of the padded,
+ * encrypted block: it is either left in the clear, or encrypted on its own so that it can be {@link #decryptLength
+ * decrypted} before the rest of the packet has been received.
+ * <p/>
+ * The sequence number of the packet is passed to each operation, for constructions that derive their nonce from it.
+ */
+public interface AEADCipher
+        extends Cipher {
+
+    /** @return the size of the authentication tag that follows each packet */
+    int getTagSize();
+
+    /** @return the size of the blocks that the encrypted part of a packet must be padded to a multiple of */
+    int getPaddingBlockSize();
+
+    /**
+     * Returns the packet length, decrypting it if need be. The buffer is not modified.
+     *
+     * @param seq    sequence number of the packet
+     * @param data   the buffer holding the packet length field
+     * @param offset offset of the packet length field
+     *
+     * @return the packet length
+     */
+    int decryptLength(long seq, byte[] data, int offset);
+
+    /**
+     * Encrypts a packet in place and writes the authentication tag right after it.
+     *
+     * @param seq    sequence number of the packet
+     * @param data   the buffer holding the packet, which must have room for the tag
+     * @param offset offset of the packet length field
+     * @param len    length of the packet, including the packet length field but not the tag
+     */
+    void seal(long seq, byte[] data, int offset, int len);
+
+    /**
+     * Verifies a packet against the authentication tag that follows it, and decrypts it in place.
+     *
+     * @param seq    sequence number of the packet
+     * @param data   the buffer holding the packet and the tag
+     * @param offset offset of the packet length field
+     * @param len    length of the packet, including the packet length field but not the tag
+     *
+     * @return whether the packet was authentic; if not, the contents of the packet are unspecified
+     */
+    boolean open(long seq, byte[] data, int offset, int len);
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport.cipher;
+
+/** {@code aes256-gcm@openssh.com} cipher */
+public class AES256GCM
+        extends BaseGCMCipher {
+
+    /** Named factory for AES256GCM Cipher */
+    public static class Factory
+            implements org.netling.ssh.common.Factory.Named<Cipher> {
+        @Override
+        public Cipher create() {
+            return new AES256GCM();
+        }
+
+        @Override
+        public String getName() {
+            return "aes256-gcm@openssh.com";
+        }
+    }
+
+    public AES256GCM() {
+        super(32);
+    }
+
+}
@@ -104,4 +104,13 @@ public class BaseCipher
         }
     }
 
+    @Override
+    public void update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+        try {
+            cipher.update(input, inputOffset, inputLen, output, outputOffset);
+        } catch (ShortBufferException e) {
+            throw new SSHRuntimeException(e);
+        }
+    }
+
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport.cipher;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.netling.ssh.common.SSHRuntimeException;
+import org.netling.ssh.common.SecurityUtils;
+
+/**
+ * Base class for AES-GCM ciphers as specified by RFC 5647, in the form adopted by OpenSSH ({@code
+ * aes*-gcm@openssh.com}).
+ * <p/>
+ * The JDK's own provider is preferred over any {@link SecurityUtils#getSecurityProvider() configured provider}, as it
+ * makes use of the AES and carry-less multiplication instructions where the processor has them. This requires Java 7
+ * or later.
+ */
+public class BaseGCMCipher
+        implements AEADCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int IV_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int BLOCK_SIZE = 16;
+
+    private final int bsize;
+
+    private javax.crypto.Cipher cipher;
+    private int mode;
+    private SecretKeySpec key;
+    /** Fixed field (4 bytes) followed by the invocation counter (8 bytes) */
+    private byte[] iv;
+
+    public BaseGCMCipher(int bsize) {
+        this.bsize = bsize;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return bsize;
+    }
+
+    @Override
+    public int getIVSize() {
+        return IV_SIZE;
+    }
+
+    @Override
+    public int getTagSize() {
+        return TAG_SIZE;
+    }
+
+    @Override
+    public int getPaddingBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    public void init(Mode mode, byte[] key, byte[] iv) {
+        this.mode = mode == Mode.Encrypt ? javax.crypto.Cipher.ENCRYPT_MODE : javax.crypto.Cipher.DECRYPT_MODE;
+        this.key = new SecretKeySpec(key, 0, bsize, "AES");
+        this.iv = Arrays.copyOf(iv, IV_SIZE);
+        try {
+            try {
+                cipher = javax.crypto.Cipher.getInstance(TRANSFORMATION);
+            } catch (NoSuchAlgorithmException e) {
+                cipher = SecurityUtils.getCipher(TRANSFORMATION);
+            }
+            reset();
+        } catch (GeneralSecurityException e) {
+            cipher = null;
+            throw new SSHRuntimeException(e);
+        }
+    }
+
+    /** Not supported; whole packets are processed by {@link #seal} and {@link #open}. */
+    @Override
+    public void update(byte[] input, int inputOffset, int inputLen) {
+        throw new UnsupportedOperationException("AEAD cipher can only process whole packets");
+    }
+
+    @Override
+    public void update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+        throw new UnsupportedOperationException("AEAD cipher can only process whole packets");
+    }
+
+    /** The packet length is sent in the clear. */
+    @Override
+    public int decryptLength(long seq, byte[] data, int offset) {
+        return (data[offset] << 24) & 0xff000000 | (data[offset + 1] << 16) & 0x00ff0000
+               | (data[offset + 2] << 8) & 0x0000ff00 | data[offset + 3] & 0x000000ff;
+    }
+
+    @Override
+    public void seal(long seq, byte[] data, int offset, int len) {
+        try {
+            cipher.updateAAD(data, offset, 4);
+            cipher.doFinal(data, offset + 4, len - 4, data, offset + 4);
+            nextIV();
+        } catch (GeneralSecurityException e) {
+            throw new SSHRuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean open(long seq, byte[] data, int offset, int len) {
+        try {
+            cipher.updateAAD(data, offset, 4);
+            cipher.doFinal(data, offset + 4, len - 4 + TAG_SIZE, data, offset + 4);
+            return true;
+        } catch (BadPaddingException e) {
+            // Tag mismatch
+            return false;
+        } catch (GeneralSecurityException e) {
+            throw new SSHRuntimeException(e);
+        } finally {
+            nextIV();
+        }
+    }
+
+    private void nextIV() {
+        for (int i = IV_SIZE - 1; i >= 4; i--)
+            if (++iv[i] != 0)
+                break;
+        try {
+            reset();
+        } catch (GeneralSecurityException e) {
+            throw new SSHRuntimeException(e);
+        }
+    }
+
+    private void reset()
+            throws GeneralSecurityException {
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, iv));
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport.cipher;
+
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.engines.ChaChaEngine;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.netling.ssh.common.ByteArrayUtils;
+
+/**
+ * {@code chacha20-poly1305@openssh.com} cipher, as specified in OpenSSH's PROTOCOL.chacha20poly1305. Requires
+ * BouncyCastle.
+ * <p/>
+ * The 64-byte key is split in two ChaCha20 keys: the second half encrypts the packet length field, the first half the
+ * rest of the packet. Both are used with the packet sequence number as nonce. The Poly1305 key is the first 32 bytes of
+ * the main keystream, and the tag is computed over the whole encrypted packet. ChaCha20 runs fast in software, which
+ * makes this the cipher of choice on processors without AES instructions.
+ */
+public class ChachaPolyCipher
+        implements AEADCipher {
+
+    /** Named factory for ChachaPolyCipher */
+    public static class Factory
+            implements org.netling.ssh.common.Factory.Named<Cipher> {
+        @Override
+        public Cipher create() {
+            return new ChachaPolyCipher();
+        }
+
+        @Override
+        public String getName() {
+            return "chacha20-poly1305@openssh.com";
+        }
+    }
+
+    private static final int KEY_SIZE = 64;
+    private static final int TAG_SIZE = 16;
+    private static final int BLOCK_SIZE = 8;
+
+    /** Keystream offset at which payload encryption starts; the first block yields the Poly1305 key */
+    private static final int PAYLOAD_OFFSET = 64;
+
+    private final ChaChaEngine header = new ChaChaEngine();
+    private final ChaChaEngine main = new ChaChaEngine();
+    private final Poly1305 poly = new Poly1305();
+
+    private final byte[] nonce = new byte[8];
+    private final byte[] polyKey = new byte[32];
+    private final byte[] tag = new byte[TAG_SIZE];
+    private final byte[] length = new byte[4];
+
+    private KeyParameter headerKey;
+    private KeyParameter mainKey;
+
+    @Override
+    public int getBlockSize() {
+        return KEY_SIZE;
+    }
+
+    /** No IV is used, the nonce is the sequence number. */
+    @Override
+    public int getIVSize() {
+        return 0;
+    }
+
+    @Override
+    public int getTagSize() {
+        return TAG_SIZE;
+    }
+
+    @Override
+    public int getPaddingBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    public void init(Mode mode, byte[] key, byte[] iv) {
+        mainKey = new KeyParameter(key, 0, 32);
+        headerKey = new KeyParameter(key, 32, 32);
+    }
+
+    /** Not supported; whole packets are processed by {@link #seal} and {@link #open}. */
+    @Override
+    public void update(byte[] input, int inputOffset, int inputLen) {
+        throw new UnsupportedOperationException("AEAD cipher can only process whole packets");
+    }
+
+    @Override
+    public void update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+        throw new UnsupportedOperationException("AEAD cipher can only process whole packets");
+    }
+
+    @Override
+    public int decryptLength(long seq, byte[] data, int offset) {
+        setNonce(seq);
+        header.init(false, new ParametersWithIV(headerKey, nonce));
+        header.processBytes(data, offset, 4, length, 0);
+        return (length[0] << 24) & 0xff000000 | (length[1] << 16) & 0x00ff0000
+               | (length[2] << 8) & 0x0000ff00 | length[3] & 0x000000ff;
+    }
+
+    @Override
+    public void seal(long seq, byte[] data, int offset, int len) {
+        setNonce(seq);
+        header.init(true, new ParametersWithIV(headerKey, nonce));
+        header.processBytes(data, offset, 4, data, offset);
+        initMain(true);
+        main.processBytes(data, offset + 4, len - 4, data, offset + 4);
+        computeTag(data, offset, len);
+        System.arraycopy(tag, 0, data, offset + len, TAG_SIZE);
+    }
+
+    @Override
+    public boolean open(long seq, byte[] data, int offset, int len) {
+        setNonce(seq);
+        initMain(false);
+        computeTag(data, offset, len);
+        if (!ByteArrayUtils.equals(tag, 0, data, offset + len, TAG_SIZE))
+            return false;
+        main.processBytes(data, offset + 4, len - 4, data, offset + 4);
+        return true;
+    }
+
+    private void setNonce(long seq) {
+        for (int i = 7; i >= 0; i--) {
+            nonce[i] = (byte) seq;
+            seq >>>= 8;
+        }
+    }
+
+    /** Initializes the main keystream, takes the Poly1305 key off it, and positions it for the payload. */
+    private void initMain(boolean forEncryption) {
+        main.init(forEncryption, new ParametersWithIV(mainKey, nonce));
+        Arrays.fill(polyKey, (byte) 0);
+        main.processBytes(polyKey, 0, polyKey.length, polyKey, 0);
+        main.seekTo(PAYLOAD_OFFSET);
+    }
+
+    private void computeTag(byte[] data, int offset, int len) {
+        poly.init(new KeyParameter(polyKey));
+        poly.update(data, offset, len);
+        poly.doFinal(tag, 0);
+    }
+
+}
@@ -67,4 +67,15 @@ public interface Cipher {
      */
     void update(byte[] input, int inputOffset, int inputLen);
 
+    /**
+     * Performs encryption or decryption of the given data into another buffer. The ranges must not overlap.
+     *
+     * @param input        the subject
+     * @param inputOffset  offset at which to start
+     * @param inputLen     number of bytes starting at {@code inputOffset}
+     * @param output       the buffer to write the result to
+     * @param outputOffset offset at which to write the result
+     */
+    void update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset);
+
 }
@@ -71,4 +71,9 @@ public class NoneCipher
     public void update(byte[] input, int inputOffset, int inputLen) {
     }
 
+    @Override
+    public void update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+        System.arraycopy(input, inputOffset, output, outputOffset, inputLen);
+    }
+
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport.kex;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+
+import javax.crypto.KeyAgreement;
+
+import org.netling.ssh.common.SecurityUtils;
+
+/**
+ * Elliptic curve Diffie-Hellman key exchange over the NIST P-256 curve with SHA-256 (RFC 5656), using the JCE {@code EC}
+ * key pair generator and {@code ECDH} key agreement. These are part of the JDK from Java 7 on, or can be had from
+ * BouncyCastle.
+ */
+public class ECDHNistP256
+        extends AbstractECDH {
+
+    /** Named factory for ECDHNistP256 key exchange */
+    public static class Factory
+            implements org.netling.ssh.common.Factory.Named<KeyExchange> {
+
+        @Override
+        public KeyExchange create() {
+            return new ECDHNistP256();
+        }
+
+        @Override
+        public String getName() {
+            return "ecdh-sha2-nistp256";
+        }
+
+    }
+
+    /** Size of a field element in bytes */
+    private static final int FIELD_SIZE = 32;
+
+    private ECParameterSpec params;
+    private KeyAgreement agreement;
+
+    @Override
+    protected byte[] generateKeyPair()
+            throws GeneralSecurityException {
+        final KeyPairGenerator generator = SecurityUtils.getKeyPairGenerator("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final KeyPair kp = generator.generateKeyPair();
+        agreement = SecurityUtils.getKeyAgreement("ECDH");
+        agreement.init(kp.getPrivate());
+        final ECPublicKey pub = (ECPublicKey) kp.getPublic();
+        params = pub.getParams();
+        return encode(pub.getW());
+    }
+
+    @Override
+    protected BigInteger computeK(byte[] Q_S)
+            throws GeneralSecurityException {
+        final ECPoint point = decode(Q_S);
+        agreement.doPhase(SecurityUtils.getKeyFactory("EC").generatePublic(new ECPublicKeySpec(point, params)), true);
+        return new BigInteger(1, agreement.generateSecret());
+    }
+
+    /** Encodes a point in uncompressed form (SEC 1, 2.3.3) */
+    private static byte[] encode(ECPoint point) {
+        final byte[] encoded = new byte[1 + 2 * FIELD_SIZE];
+        encoded[0] = 0x04;
+        putFieldElement(point.getAffineX(), encoded, 1);
+        putFieldElement(point.getAffineY(), encoded, 1 + FIELD_SIZE);
+        return encoded;
+    }
+
+    private static void putFieldElement(BigInteger e, byte[] buf, int offset) {
+        final byte[] b = e.toByteArray();
+        if (b.length > FIELD_SIZE) // Sign byte
+            System.arraycopy(b, b.length - FIELD_SIZE, buf, offset, FIELD_SIZE);
+        else
+            System.arraycopy(b, 0, buf, offset + FIELD_SIZE - b.length, b.length);
+    }
+
+    /** Decodes a point in uncompressed form; the key agreement checks that it lies on the curve */
+    private static ECPoint decode(byte[] encoded)
+            throws GeneralSecurityException {
+        if (encoded.length != 1 + 2 * FIELD_SIZE || encoded[0] != 0x04)
+            throw new GeneralSecurityException("Invalid or compressed EC point");
+        final byte[] x = new byte[FIELD_SIZE];
+        final byte[] y = new byte[FIELD_SIZE];
+        System.arraycopy(encoded, 1, x, 0, FIELD_SIZE);
+        System.arraycopy(encoded, 1 + FIELD_SIZE, y, 0, FIELD_SIZE);
+        return new ECPoint(new BigInteger(1, x), new BigInteger(1, y));
+    }
+
+}
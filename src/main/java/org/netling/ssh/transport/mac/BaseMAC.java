@@ -50,13 +50,19 @@ public class BaseMAC
     private final String algorithm;
     private final int defbsize;
     private final int bsize;
+    private final boolean etm;
     private final byte[] tmp;
     private javax.crypto.Mac mac;
 
     public BaseMAC(String algorithm, int bsize, int defbsize) {
+        this(algorithm, bsize, defbsize, false);
+    }
+
+    public BaseMAC(String algorithm, int bsize, int defbsize, boolean etm) {
         this.algorithm = algorithm;
         this.bsize = bsize;
         this.defbsize = defbsize;
+        this.etm = etm;
         tmp = new byte[defbsize];
     }
 
@@ -88,6 +94,16 @@ public class BaseMAC
         return bsize;
     }
 
+    @Override
+    public int getKeySize() {
+        return defbsize;
+    }
+
+    @Override
+    public boolean isEncryptThenMac() {
+        return etm;
+    }
+
     @Override
     public void init(byte[] key) {
         if (key.length > defbsize) {
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport.mac;
+
+/** Encrypt-then-MAC HMAC-SHA2-256 <code>MAC</code> */
+public class HMACSHA2256ETM
+        extends BaseMAC {
+
+    /** Named factory for the Encrypt-then-MAC HMAC-SHA2-256 <code>MAC</code> */
+    public static class Factory
+            implements org.netling.ssh.common.Factory.Named<MAC> {
+
+        @Override
+        public MAC create() {
+            return new HMACSHA2256ETM();
+        }
+
+        @Override
+        public String getName() {
+            return "hmac-sha2-256-etm@openssh.com";
+        }
+    }
+
+    public HMACSHA2256ETM() {
+        super("HmacSHA256", 32, 32, true);
+    }
+}
@@ -46,6 +46,15 @@ public interface MAC {
 
     int getBlockSize();
 
+    /** @return the size of the key this MAC is to be {@link #init initialized} with */
+    int getKeySize();
+
+    /**
+     * @return whether this MAC is used encrypt-then-MAC style, i.e. computed over the encrypted packet with the packet
+     *         length left in the clear, rather than over the plaintext
+     */
+    boolean isEncryptThenMac();
+
     void init(byte[] key);
 
     void update(byte[] foo);
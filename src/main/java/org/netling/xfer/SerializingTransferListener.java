@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.xfer;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Passes on the callbacks for files that are transferred concurrently to a {@link TransferListener}, which expects them
+ * one file at a time.
+ * <p/>
+ * Each concurrently transferred file reports to its own {@link #newFileListener() file listener}. Files and directory
+ * callbacks are passed on in the order the file listeners were created and the directory callbacks were made, i.e. in
+ * the order the directory tree is walked. The callbacks of the first file in that order are passed on as they happen.
+ * The callbacks of files further on, and of directories, are held back until the files before them are finished, and
+ * then passed on as far as they have got.
+ */
+public class SerializingTransferListener
+        implements TransferListener {
+
+    /** Reports on one file; directory callbacks made on it are ignored, as it has no place for them in the order. */
+    public class FileListener
+            implements TransferListener {
+
+        private String name;
+        private long size = -1;
+        private long transferred = -1;
+        /** Whether startedFile has been passed on for this file */
+        private boolean passedStart;
+        private boolean finished;
+        private boolean released;
+
+        @Override
+        public void startedDir(String name) {
+        }
+
+        @Override
+        public void startedFile(String name, long size) {
+            synchronized (SerializingTransferListener.this) {
+                this.name = name;
+                this.size = size;
+                if (queue.peek() == this)
+                    passOnStart(this);
+            }
+        }
+
+        @Override
+        public void reportProgress(long transferred) {
+            synchronized (SerializingTransferListener.this) {
+                this.transferred = transferred;
+                if (passedStart)
+                    delegate.reportProgress(transferred);
+            }
+        }
+
+        @Override
+        public void finishedFile() {
+            synchronized (SerializingTransferListener.this) {
+                finished = true;
+                if (queue.peek() == this)
+                    passOnQueued();
+            }
+        }
+
+        @Override
+        public void finishedDir() {
+        }
+
+        /**
+         * To be called once the transfer of the file is over, whether it succeeded or not. If it failed, or never
+         * started, the files after it get their turn.
+         */
+        public void release() {
+            synchronized (SerializingTransferListener.this) {
+                if (!released) {
+                    released = true;
+                    if (queue.peek() == this)
+                        passOnQueued();
+                }
+            }
+        }
+
+    }
+
+    private final TransferListener delegate;
+
+    /**
+     * File listeners and held back directory callbacks, in the order they are to be passed on; the head is the file
+     * whose callbacks are being passed on as they happen, if any
+     */
+    private final Queue<Object> queue = new LinkedList<Object>();
+
+    public SerializingTransferListener(TransferListener delegate) {
+        this.delegate = delegate;
+    }
+
+    /** @return a listener for the next file, whose callbacks are passed on after those of the files before it */
+    public synchronized FileListener newFileListener() {
+        final FileListener file = new FileListener();
+        queue.add(file);
+        return file;
+    }
+
+    @Override
+    public synchronized void startedDir(final String name) {
+        passOnOrQueue(new Runnable() {
+            @Override
+            public void run() {
+                delegate.startedDir(name);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void startedFile(String name, long size) {
+        delegate.startedFile(name, size);
+    }
+
+    @Override
+    public synchronized void reportProgress(long transferred) {
+        delegate.reportProgress(transferred);
+    }
+
+    @Override
+    public synchronized void finishedFile() {
+        delegate.finishedFile();
+    }
+
+    @Override
+    public synchronized void finishedDir() {
+        passOnOrQueue(new Runnable() {
+            @Override
+            public void run() {
+                delegate.finishedDir();
+            }
+        });
+    }
+
+    private void passOnOrQueue(Runnable dirCallback) {
+        if (queue.isEmpty())
+            dirCallback.run();
+        else
+            queue.add(dirCallback);
+    }
+
+    private void passOnStart(FileListener file) {
+        file.passedStart = true;
+        delegate.startedFile(file.name, file.size);
+        if (file.transferred >= 0)
+            delegate.reportProgress(file.transferred);
+    }
+
+    /** Called once the head of the queue is done with; passes on what is queued up to the next unfinished file. */
+    private void passOnQueued() {
+        Object head;
+        while ((head = queue.peek()) != null) {
+            if (head instanceof Runnable)
+                ((Runnable) head).run();
+            else {
+                final FileListener file = (FileListener) head;
+                if (file.name != null && !file.passedStart)
+                    passOnStart(file);
+                if (file.finished) {
+                    if (file.passedStart)
+                        delegate.finishedFile();
+                } else if (!file.released)
+                    return; // Passed on as it happens from here
+            }
+            queue.remove();
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FutureTest {
+
+    private static final ExceptionChainer<Exception> chainer = new ExceptionChainer<Exception>() {
+        @Override
+        public Exception chain(Throwable t) {
+            return t instanceof Exception ? (Exception) t : new Exception(t);
+        }
+    };
+
+    private final Future<String, Exception> future = new Future<String, Exception>("test", chainer);
+
+    @Test
+    public void testListenerToldOfValue() {
+        final AtomicReference<String> told = new AtomicReference<String>();
+        future.addListener(recorder(told));
+        assertNull(told.get());
+        future.set("value");
+        assertEquals("value", told.get());
+    }
+
+    @Test
+    public void testListenerAddedLateToldStraightAway() {
+        final AtomicReference<String> told = new AtomicReference<String>();
+        future.set("value");
+        future.addListener(recorder(told));
+        assertEquals("value", told.get());
+    }
+
+    @Test
+    public void testListenerToldOfError() {
+        final AtomicReference<String> told = new AtomicReference<String>();
+        future.addListener(recorder(told));
+        future.error(new Exception("boom"));
+        assertEquals("failed: boom", told.get());
+    }
+
+    @Test
+    public void testTransform()
+            throws Exception {
+        final Future<Integer, Exception> length = future.transform(new Future.Transformer<String, Integer, Exception>() {
+            @Override
+            public Integer transform(String val) {
+                return val.length();
+            }
+        });
+        assertTrue(!length.isSet());
+        future.set("value");
+        assertEquals(Integer.valueOf(5), length.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTransformPassesOnError() {
+        final Future<Integer, Exception> length = future.transform(new Future.Transformer<String, Integer, Exception>() {
+            @Override
+            public Integer transform(String val) {
+                return val.length();
+            }
+        });
+        final Exception error = new Exception("boom");
+        future.error(error);
+        try {
+            length.get(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            assertSame(error, e);
+            return;
+        }
+        throw new AssertionError("Expected an error");
+    }
+
+    @Test
+    public void testTransformerThrowing() {
+        final Exception error = new Exception("bad value");
+        final Future<Integer, Exception> parsed = future.transform(new Future.Transformer<String, Integer, Exception>() {
+            @Override
+            public Integer transform(String val)
+                    throws Exception {
+                throw error;
+            }
+        });
+        future.set("value");
+        assertTrue(parsed.hasError());
+    }
+
+    @Test
+    public void testExpiryIgnoredOnceSet()
+            throws Exception {
+        future.expireAfter(10, TimeUnit.MILLISECONDS);
+        future.set("value");
+        Thread.sleep(100);
+        assertEquals("value", future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testErrorOverridesValue() {
+        final Exception error = new Exception("transport died");
+        future.set("value");
+        future.error(error);
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            assertSame(error, e);
+            return;
+        }
+        throw new AssertionError("Expected an error");
+    }
+
+    @Test
+    public void testExpiryListenerCalledWithoutLock()
+            throws Exception {
+        final CountDownLatch told = new CountDownLatch(1);
+        final AtomicBoolean lockFree = new AtomicBoolean();
+        future.addListener(new Future.Listener<String, Exception>() {
+            @Override
+            public void completed(String val) {
+            }
+
+            @Override
+            public void failed(Exception error) {
+                // Another thread can only look at the future if the lock is not held by this one
+                final Thread other = new Thread() {
+                    @Override
+                    public void run() {
+                        future.hasError();
+                    }
+                };
+                other.start();
+                try {
+                    other.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lockFree.set(!other.isAlive());
+                told.countDown();
+            }
+        });
+        future.expireAfter(10, TimeUnit.MILLISECONDS);
+        assertTrue(told.await(5, TimeUnit.SECONDS));
+        assertTrue(lockFree.get());
+    }
+
+    private static Future.Listener<String, Exception> recorder(final AtomicReference<String> told) {
+        return new Future.Listener<String, Exception>() {
+            @Override
+            public void completed(String val) {
+                told.set(val);
+            }
+
+            @Override
+            public void failed(Exception error) {
+                told.set("failed: " + error.getMessage());
+            }
+        };
+    }
+
+}
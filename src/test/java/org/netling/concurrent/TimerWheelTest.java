@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimerWheelTest {
+
+    private final TimerWheel wheel = new TimerWheel("test-timer", 10, TimeUnit.MILLISECONDS, 8, new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+
+    @Test
+    public void testFiresAfterDelay()
+            throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        wheel.schedule(countDown(fired), 50, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testSpansRounds()
+            throws InterruptedException {
+        // More ticks than buckets
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        wheel.schedule(countDown(fired), 200, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testCancel()
+            throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final TimerWheel.Timeout timeout = wheel.schedule(countDown(fired), 30, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(fired.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testMany()
+            throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch fired = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++)
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                    fired.countDown();
+                }
+            }, i % 100, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertEquals(1000, count.get());
+    }
+
+    @Test
+    public void testFutureExpires() {
+        final Future<String, Exception> future = new Future<String, Exception>("test", new ExceptionChainer<Exception>() {
+            @Override
+            public Exception chain(Throwable t) {
+                return t instanceof Exception ? (Exception) t : new Exception(t);
+            }
+        });
+        final long start = System.nanoTime();
+        future.expireAfter(50, TimeUnit.MILLISECONDS);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof java.util.concurrent.TimeoutException);
+            // Expired rather than timed out waiting
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+}
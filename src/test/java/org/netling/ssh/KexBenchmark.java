@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.apache.sshd.common.keyprovider.FileKeyPairProvider;
+import org.apache.sshd.server.SshServer;
+import org.netling.ssh.common.Factory;
+import org.netling.ssh.transport.TransportException;
+import org.netling.ssh.transport.kex.Curve25519SHA256;
+import org.netling.ssh.transport.kex.DHG14;
+import org.netling.ssh.transport.kex.ECDHNistP256;
+import org.netling.ssh.transport.kex.KeyExchange;
+import org.netling.ssh.transport.verification.PromiscuousVerifier;
+import org.netling.ssh.util.BogusPasswordAuthenticator;
+
+/**
+ * Measures the latency of a full {@link SSHClient#connect} handshake for each key exchange. Not a unit test, as timings
+ * depend on the machine; run it with the test classpath, optionally giving the number of handshakes per key exchange
+ * (default 100), and a host and port to connect to instead of an embedded server. The embedded server does not offer
+ * curve25519-sha256, so measuring that takes a server that does, such as OpenSSH 6.5 or later.
+ */
+public class KexBenchmark {
+
+    private static final String hostkey = "src/test/resources/hostkey.pem";
+    private static final String fingerprint = "ce:a7:c1:cf:17:3f:96:49:6a:53:1a:05:0b:ba:90:db";
+
+    private final String host;
+    private final int port;
+    /** Verifies the embedded server's key by its fingerprint, and accepts any other server's key */
+    private final boolean embedded;
+
+    private KexBenchmark(String host, int port, boolean embedded) {
+        this.host = host;
+        this.port = port;
+        this.embedded = embedded;
+    }
+
+    private long[] measure(Factory.Named<KeyExchange> kex, int handshakes)
+            throws IOException {
+        final DefaultConfig config = new DefaultConfig();
+        config.setKeyExchangeFactories(Arrays.<Factory.Named<KeyExchange>>asList(kex));
+        final long[] times = new long[handshakes];
+        for (int i = 0; i < handshakes; i++) {
+            final SSHClient ssh = new SSHClient(config);
+            if (embedded)
+                ssh.addHostKeyVerifier(fingerprint);
+            else
+                ssh.addHostKeyVerifier(new PromiscuousVerifier());
+            final long start = System.nanoTime();
+            ssh.connect(host, port);
+            times[i] = System.nanoTime() - start;
+            ssh.disconnect();
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    private void report(Factory.Named<KeyExchange> kex, int handshakes)
+            throws IOException {
+        try {
+            measure(kex, Math.max(1, handshakes / 10)); // Warm up
+        } catch (TransportException e) {
+            System.out.printf("%-30s not offered by the server%n", kex.getName());
+            return;
+        }
+        final long[] times = measure(kex, handshakes);
+        System.out.printf("%-30s median %6.2f ms, 90th percentile %6.2f ms%n", kex.getName(),
+                          times[times.length / 2] / 1e6, times[times.length * 9 / 10] / 1e6);
+    }
+
+    public static void main(String... args)
+            throws IOException {
+        final int handshakes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        if (args.length > 2) {
+            new KexBenchmark(args[1], Integer.parseInt(args[2]), false).run(handshakes);
+            return;
+        }
+
+        final ServerSocket s = new ServerSocket(0);
+        final int port = s.getLocalPort();
+        s.close();
+        final SshServer sshd = SshServer.setUpDefaultServer();
+        sshd.setPort(port);
+        sshd.setKeyPairProvider(new FileKeyPairProvider(Paths.get(hostkey)));
+        sshd.setPasswordAuthenticator(new BogusPasswordAuthenticator());
+        sshd.start();
+        try {
+            new KexBenchmark("localhost", port, true).run(handshakes);
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    private void run(int handshakes)
+            throws IOException {
+        report(new Curve25519SHA256.Factory(), handshakes);
+        report(new ECDHNistP256.Factory(), handshakes);
+        report(new DHG14.Factory(), handshakes);
+    }
+
+}
@@ -15,19 +15,69 @@
  */
 package org.netling.ssh;
 
+import org.netling.concurrent.Event;
+import org.netling.sftp.FileAttributes;
+import org.netling.sftp.FileMode;
+import org.netling.sftp.OpenMode;
+import org.netling.sftp.RemoteDirectory;
+import org.netling.sftp.RemoteFile;
+import org.netling.sftp.SFTPClient;
+import org.netling.sftp.SFTPEngine;
+import org.netling.sftp.SFTPException;
+import org.netling.sftp.SFTPFileTransfer;
+import org.netling.ssh.common.Buffer;
+import org.netling.ssh.common.SSHException;
+import org.netling.ssh.connection.ConnectionException;
+import org.netling.ssh.connection.channel.Channel;
+import org.netling.ssh.connection.channel.ChannelDataListener;
+import org.netling.ssh.connection.channel.direct.NioLocalPortForwarder;
+import org.netling.ssh.connection.channel.direct.Session;
+import org.netling.ssh.connection.channel.forwarded.ConnectListener;
+import org.netling.ssh.connection.channel.forwarded.RemotePortForwarder;
+import org.netling.ssh.transport.SelectorPool;
 import org.netling.ssh.transport.TransportException;
 import org.netling.ssh.userauth.UserAuthException;
 import org.netling.ssh.util.BogusPasswordAuthenticator;
+import org.netling.xfer.TransferListener;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+import org.apache.sshd.server.Command;
 import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
 import org.apache.sshd.common.keyprovider.FileKeyPairProvider;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /* Kinda basic right now */
@@ -36,6 +86,7 @@ public class SmokeTest {
 
     private SSHClient ssh;
     private SshServer sshd;
+    private SelectorPool pool;
 
     private final String hostname = "localhost";
     private int port;
@@ -55,6 +106,8 @@ public class SmokeTest {
         sshd.setKeyPairProvider(new FileKeyPairProvider(Paths.get(hostkey)));
         // sshd.setShellFactory(new EchoShellFactory());
         sshd.setPasswordAuthenticator(new BogusPasswordAuthenticator());
+        sshd.setSubsystemFactories(Collections.<NamedFactory<Command>>singletonList(new SftpSubsystemFactory()));
+        sshd.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
         sshd.start();
 
         ssh = new SSHClient();
@@ -64,8 +117,11 @@ public class SmokeTest {
     @After
     public void tearUp()
             throws IOException, InterruptedException {
-        ssh.disconnect();
+        if (ssh.isConnected())
+            ssh.disconnect();
         sshd.stop();
+        if (pool != null)
+            pool.close();
     }
 
     @Test
@@ -83,6 +139,588 @@ public class SmokeTest {
         assertTrue(ssh.isConnected());
     }
 
+    @Test
+    public void testConnectWithSelectorPool()
+            throws IOException {
+        pool = new SelectorPool(1);
+        ssh.useSelectorPool(pool);
+        connect();
+        authenticate();
+        assertTrue(ssh.isConnected());
+        assertTrue(ssh.isAuthenticated());
+    }
+
+    @Test
+    public void testParallelConnect()
+            throws IOException, InterruptedException, ExecutionException {
+        pool = new SelectorPool(2);
+        final ParallelConnector connector = new ParallelConnector(new DefaultConfig(), 4, pool);
+        try {
+            final Map<String, Future<SSHClient>> clients = connector.connectAll(
+                    Arrays.asList(hostname, "127.0.0.1"), port,
+                    new ParallelConnector.Handler() {
+                        @Override
+                        public void configure(SSHClient client, String hostname) {
+                            client.addHostKeyVerifier(fingerprint);
+                        }
+
+                        @Override
+                        public void authenticate(SSHClient client, String hostname)
+                                throws IOException {
+                            client.authPassword("same", "same");
+                        }
+                    });
+            for (Future<SSHClient> future : clients.values()) {
+                final SSHClient client = future.get();
+                assertTrue(client.isAuthenticated());
+                client.disconnect();
+            }
+        } finally {
+            connector.close();
+        }
+    }
+
+    @Test
+    public void testAsyncChannelIO()
+            throws IOException {
+        connect();
+        authenticate();
+        final Session session = ssh.startSession();
+        final Buffer.PlainBuffer received = new Buffer.PlainBuffer();
+        final Event<ConnectionException> gotVersion = new Event<ConnectionException>("version",
+                                                                                     ConnectionException.chainer);
+        session.setDataListener(new ChannelDataListener() {
+            @Override
+            public void gotData(Channel channel, byte[] data, int offset, int len) {
+                received.putRawBytes(data, offset, len);
+                if (received.available() >= 4 && received.available() >= 4 + received.array()[3])
+                    gotVersion.set();
+            }
+
+            @Override
+            public void gotExtendedData(Channel channel, byte[] data, int offset, int len) {
+            }
+
+            @Override
+            public void gotEOF(Channel channel) {
+            }
+
+            @Override
+            public void notifyError(SSHException error) {
+                gotVersion.error(error);
+            }
+        });
+        session.startSubsystem("sftp");
+        // SSH_FXP_INIT, version 3
+        final byte[] init = { 0, 0, 0, 5, 1, 0, 0, 0, 3 };
+        assertEquals(Integer.valueOf(init.length), session.writeAsync(init, 0, init.length).get(5, TimeUnit.SECONDS));
+        gotVersion.await(5, TimeUnit.SECONDS);
+        received.readInt();
+        assertEquals(2, received.readByte()); // SSH_FXP_VERSION
+        assertEquals(3, received.readInt());
+        session.close();
+    }
+
+    @Test
+    public void testKeepAliveAndHeartbeat()
+            throws IOException, InterruptedException {
+        connect();
+        authenticate();
+        final long written = ssh.getTransport().getWrittenPacketCount();
+        ssh.getConnection().setKeepAliveInterval(1);
+        ssh.getConnection().setKeepAliveCountMax(1);
+        ssh.getTransport().setHeartbeatInterval(1);
+        Thread.sleep(3500);
+        // Keep-alives are answered, so the connection stays up
+        assertTrue(ssh.isConnected());
+        assertTrue(ssh.getTransport().isRunning());
+        assertTrue(ssh.getTransport().getWrittenPacketCount() > written);
+    }
+
+    @Test
+    public void testStartSessions()
+            throws IOException {
+        connect();
+        authenticate();
+        final List<Session> sessions = ssh.startSessions(8);
+        assertEquals(8, sessions.size());
+        final List<org.netling.concurrent.Future<Boolean, ConnectionException>> started =
+                new ArrayList<org.netling.concurrent.Future<Boolean, ConnectionException>>();
+        for (Session session : sessions)
+            started.add(session.startSubsystemAsync("sftp"));
+        for (org.netling.concurrent.Future<Boolean, ConnectionException> future : started)
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        for (Session session : sessions)
+            session.close();
+    }
+
+    @Test
+    public void testNioLocalPortForwarding()
+            throws IOException, InterruptedException {
+        connect();
+        authenticate();
+
+        final ServerSocket echo = new ServerSocket(0);
+        final Thread echoer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final Socket s = echo.accept();
+                    final InputStream in = s.getInputStream();
+                    final OutputStream out = s.getOutputStream();
+                    final byte[] buf = new byte[8192];
+                    int len;
+                    while ((len = in.read(buf)) != -1)
+                        out.write(buf, 0, len);
+                    s.close();
+                } catch (IOException e) {
+                    // Test fails on the client side
+                }
+            }
+        };
+        echoer.setDaemon(true);
+        echoer.start();
+
+        final NioLocalPortForwarder forwarder = ssh.newNioLocalPortForwarder(
+                new InetSocketAddress("127.0.0.1", 0), "127.0.0.1", echo.getLocalPort());
+        forwarder.setBufferLimit(16 * 1024); // Exercise holding back the window
+        final Thread listener = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    forwarder.listen();
+                } catch (IOException e) {
+                    // Test fails on the client side
+                }
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+
+        final byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+        final Socket sock = new Socket();
+        sock.connect(forwarder.getListeningAddress());
+        sock.setSoTimeout(10000);
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    sock.getOutputStream().write(data);
+                    sock.shutdownOutput();
+                } catch (IOException e) {
+                    // Test fails on the reading side
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+
+        // The server does not pass on EOF to the echo socket, so read as much as was sent
+        final byte[] received = new byte[data.length];
+        new DataInputStream(sock.getInputStream()).readFully(received);
+        sock.close();
+        assertTrue(Arrays.equals(data, received));
+
+        forwarder.close();
+        listener.join(5000);
+        echo.close();
+    }
+
+    @Test
+    public void testNioLocalPortForwarderClosedWhileOpening()
+            throws IOException, InterruptedException {
+        // Hold back the confirmation of the channel until the forwarder has been closed
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        sshd.setForwardingFilter(new AcceptAllForwardingFilter() {
+            @Override
+            public boolean canConnect(Type type, SshdSocketAddress address,
+                                      org.apache.sshd.common.session.Session session) {
+                connecting.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.canConnect(type, address, session);
+            }
+        });
+        connect();
+        authenticate();
+
+        final ServerSocket target = new ServerSocket(0);
+        final NioLocalPortForwarder forwarder = ssh.newNioLocalPortForwarder(
+                new InetSocketAddress("127.0.0.1", 0), "127.0.0.1", target.getLocalPort());
+        final Thread listener = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    forwarder.listen();
+                } catch (IOException e) {
+                    // Test fails on the client side
+                }
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+
+        final Socket sock = new Socket();
+        sock.connect(forwarder.getListeningAddress());
+        sock.setSoTimeout(10000);
+        assertTrue(connecting.await(5, TimeUnit.SECONDS));
+        forwarder.close();
+        listener.join(5000);
+
+        // The connection is closed even though its channel is still opening
+        assertEquals(-1, sock.getInputStream().read());
+        sock.close();
+
+        // ...and the channel is closed once its opening is confirmed
+        release.countDown();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (ssh.getConnection().get(0) != null && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(null, ssh.getConnection().get(0));
+        target.close();
+    }
+
+    @Test
+    public void testRemoteForwardingRejectedWhenExecutorSaturated()
+            throws IOException, InterruptedException {
+        connect();
+        authenticate();
+
+        // An executor whose only thread is busy, so that it rejects the callback
+        final CountDownLatch release = new CountDownLatch(1);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                                                                   new SynchronousQueue<Runnable>());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final AtomicInteger called = new AtomicInteger();
+        final ConnectListener listener = new ConnectListener() {
+            @Override
+            public void gotConnect(Channel.Forwarded chan) {
+                called.incrementAndGet();
+            }
+        };
+        final ServerSocket free = new ServerSocket(0);
+        final int forwardPort = free.getLocalPort();
+        free.close();
+        final RemotePortForwarder rpf = ssh.getRemotePortForwarder();
+        rpf.setExecutor(executor);
+        rpf.bind(new RemotePortForwarder.Forward("127.0.0.1", forwardPort), listener);
+
+        // The server closes the forwarded connection once the channel is rejected
+        final Socket sock = new Socket("127.0.0.1", forwardPort);
+        sock.setSoTimeout(10000);
+        assertEquals(-1, sock.getInputStream().read());
+        sock.close();
+
+        assertEquals(0, called.get());
+        assertEquals(0, rpf.getChannelCount());
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSFTPReadAhead()
+            throws IOException {
+        connect();
+        authenticate();
+
+        final byte[] data = new byte[300 * 1024 + 123];
+        new Random(7).nextBytes(data);
+        final File file = File.createTempFile("readahead", ".bin");
+        try {
+            final FileOutputStream fos = new FileOutputStream(file);
+            fos.write(data);
+            fos.close();
+
+            final RemoteFile rf = new SFTPClient(ssh).open(file.getPath());
+            try {
+                // Larger chunks than the server returns at once make for short reads
+                final InputStream in = rf.new ReadAheadRemoteFileInputStream(4, 100 * 1024, 0);
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                final byte[] buf = new byte[8192];
+                int len;
+                while ((len = in.read(buf)) != -1)
+                    received.write(buf, 0, len);
+                assertTrue(Arrays.equals(data, received.toByteArray()));
+                assertEquals(-1, in.read());
+            } finally {
+                rf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSFTPAsyncRequests()
+            throws IOException {
+        connect();
+        authenticate();
+
+        final File dir = File.createTempFile("async", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            final SFTPEngine engine = new SFTPClient(ssh).getSFTPEngine();
+            final List<org.netling.concurrent.Future<Boolean, SFTPException>> made =
+                    new ArrayList<org.netling.concurrent.Future<Boolean, SFTPException>>();
+            for (int i = 0; i < 100; i++)
+                made.add(engine.makeDirAsync(dir.getPath() + "/" + i, FileAttributes.EMPTY));
+            for (org.netling.concurrent.Future<Boolean, SFTPException> future : made)
+                assertTrue(future.get(5, TimeUnit.SECONDS));
+
+            final List<org.netling.concurrent.Future<FileAttributes, SFTPException>> stats =
+                    new ArrayList<org.netling.concurrent.Future<FileAttributes, SFTPException>>();
+            for (int i = 0; i < 100; i++)
+                stats.add(engine.statAsync(dir.getPath() + "/" + i));
+            for (org.netling.concurrent.Future<FileAttributes, SFTPException> future : stats)
+                assertEquals(FileMode.Type.DIRECTORY, future.get(5, TimeUnit.SECONDS).getType());
+
+            final RemoteDirectory rd = engine.openDirAsync(dir.getPath()).get(5, TimeUnit.SECONDS);
+            assertEquals(100, rd.scan(null).size());
+            rd.closeAsync().get(5, TimeUnit.SECONDS);
+
+            for (int i = 0; i < 100; i++)
+                made.set(i, engine.removeDirAsync(dir.getPath() + "/" + i));
+            for (org.netling.concurrent.Future<Boolean, SFTPException> future : made)
+                assertTrue(future.get(5, TimeUnit.SECONDS));
+            assertEquals(0, dir.list().length);
+        } finally {
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSFTPConcurrentTreeTransfer()
+            throws IOException {
+        connect();
+        authenticate();
+
+        final File root = File.createTempFile("tree", "");
+        root.delete();
+        final File src = new File(root, "src");
+        final File sub = new File(src, "sub");
+        sub.mkdirs();
+        final File uploaded = new File(root, "uploaded");
+        uploaded.mkdir();
+        final File downloaded = new File(root, "downloaded");
+        downloaded.mkdir();
+        try {
+            final Random random = new Random(9);
+            for (int i = 0; i < 30; i++) {
+                final byte[] data = new byte[random.nextInt(100 * 1024)];
+                random.nextBytes(data);
+                final FileOutputStream fos = new FileOutputStream(new File(i < 20 ? src : sub, "file" + i));
+                fos.write(data);
+                fos.close();
+            }
+
+            final SFTPClient sftp = new SFTPClient(ssh);
+            final SFTPFileTransfer xfer = sftp.getFileTansfer();
+            xfer.setMaxConcurrentFiles(4);
+            xfer.addEngine(new SFTPEngine(ssh).init());
+            final List<String> events = new ArrayList<String>();
+            xfer.setTransferListener(new TransferListener() {
+                @Override
+                public void startedDir(String name) {
+                    events.add("dir " + name);
+                }
+
+                @Override
+                public void startedFile(String name, long size) {
+                    events.add("file " + name);
+                }
+
+                @Override
+                public void reportProgress(long transferred) {
+                    events.add("progress");
+                }
+
+                @Override
+                public void finishedFile() {
+                    events.add("/file");
+                }
+
+                @Override
+                public void finishedDir() {
+                    events.add("/dir");
+                }
+            });
+
+            xfer.upload(src.getPath(), uploaded.getPath());
+            xfer.download(uploaded.getPath() + "/src", downloaded.getPath());
+
+            for (int i = 0; i < 30; i++) {
+                final String path = (i < 20 ? "src/" : "src/sub/") + "file" + i;
+                assertTrue(path, Arrays.equals(readFile(new File(src.getParentFile(), path)),
+                                               readFile(new File(downloaded, path))));
+            }
+
+            // Callbacks for one file at a time, within the directory it is in
+            int depth = 0;
+            int files = 0;
+            boolean inFile = false;
+            for (String event : events)
+                if (event.startsWith("dir ")) {
+                    assertTrue(!inFile);
+                    depth++;
+                } else if (event.equals("/dir")) {
+                    assertTrue(!inFile && depth > 0);
+                    depth--;
+                } else if (event.startsWith("file ")) {
+                    assertTrue(!inFile && depth > 0);
+                    inFile = true;
+                    files++;
+                } else if (event.equals("/file")) {
+                    assertTrue(inFile);
+                    inFile = false;
+                } else
+                    assertTrue(inFile);
+            assertEquals(0, depth);
+            assertEquals(60, files);
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void testSFTPSegmentedDownload()
+            throws IOException {
+        connect();
+        authenticate();
+        final SSHClient other = new SSHClient();
+        other.addHostKeyVerifier(fingerprint);
+        other.connect(hostname, port);
+        other.authPassword("same", "same");
+
+        final byte[] data = new byte[1024 * 1024 + 123];
+        new Random(10).nextBytes(data);
+        final File file = File.createTempFile("segmented", ".bin");
+        final File downloaded = File.createTempFile("segmented", ".bin");
+        try {
+            final FileOutputStream fos = new FileOutputStream(file);
+            fos.write(data);
+            fos.close();
+
+            final SFTPFileTransfer xfer = new SFTPClient(ssh).getFileTansfer();
+            xfer.setMaxDownloadSegments(4);
+            xfer.setMinDownloadSegmentSize(128 * 1024);
+            // Segments starting out on the closed engine resume on the next one
+            final SFTPEngine closed = new SFTPEngine(ssh).init();
+            closed.close();
+            xfer.addEngine(closed);
+            xfer.addEngine(new SFTPEngine(other).init());
+            final List<Long> progress = new ArrayList<Long>();
+            xfer.setTransferListener(new TransferListener() {
+                @Override
+                public void startedDir(String name) {
+                }
+
+                @Override
+                public void startedFile(String name, long size) {
+                }
+
+                @Override
+                public void reportProgress(long transferred) {
+                    progress.add(transferred);
+                }
+
+                @Override
+                public void finishedFile() {
+                }
+
+                @Override
+                public void finishedDir() {
+                }
+            });
+            xfer.download(file.getPath(), downloaded.getPath());
+
+            assertTrue(Arrays.equals(data, readFile(downloaded)));
+            // Segments report their progress in order
+            for (int i = 1; i < progress.size(); i++)
+                assertTrue(progress.get(i - 1) < progress.get(i));
+            assertEquals(Long.valueOf(data.length), progress.get(progress.size() - 1));
+        } finally {
+            file.delete();
+            downloaded.delete();
+            other.disconnect();
+        }
+    }
+
+    @Test
+    public void testSFTPWriteBehind()
+            throws IOException {
+        connect();
+        authenticate();
+
+        final byte[] data = new byte[300 * 1024 + 123];
+        new Random(8).nextBytes(data);
+        final File file = File.createTempFile("writebehind", ".bin");
+        try {
+            final RemoteFile rf = new SFTPClient(ssh).open(file.getPath(),
+                                                           EnumSet.of(OpenMode.WRITE, OpenMode.TRUNC));
+            try {
+                final OutputStream out = rf.getOutputStream(4);
+                for (int off = 0; off < data.length; off += 10000)
+                    out.write(data, off, Math.min(10000, data.length - off));
+                out.close();
+            } finally {
+                rf.close();
+            }
+            final byte[] written = new byte[data.length];
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            in.readFully(written);
+            assertEquals(-1, in.read());
+            in.close();
+            assertTrue(Arrays.equals(data, written));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSFTPWriteBehindFailure()
+            throws IOException {
+        connect();
+        authenticate();
+
+        final File file = File.createTempFile("writebehind", ".bin");
+        try {
+            final RemoteFile rf = new SFTPClient(ssh).open(file.getPath(), EnumSet.of(OpenMode.READ));
+            try {
+                final OutputStream out = rf.getOutputStream(4);
+                final byte[] data = new byte[1024];
+                out.write(data);
+                // Responses come in order, so the failed write has been answered once this returns
+                rf.fetchAttributes();
+                try {
+                    out.write(data);
+                } catch (SFTPException e) {
+                    return;
+                }
+                throw new AssertionError("Write to a read-only handle did not fail");
+            } finally {
+                rf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
     // @Test
     // // TODO -- test I/O
     // public void testShell() throws IOException
@@ -97,6 +735,26 @@ public class SmokeTest {
     // assertFalse(shell.isOpen());
     // }
 
+    private static byte[] readFile(File file)
+            throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
     private void authenticate()
             throws UserAuthException, TransportException {
         ssh.authPassword("same", "same");
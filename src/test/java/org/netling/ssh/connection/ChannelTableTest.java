@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.netling.ssh.connection.channel.Channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelTableTest {
+
+    private final ChannelTable table = new ChannelTable();
+
+    @Test
+    public void testAttachAndGet() {
+        final Channel a = channel(table.allocate());
+        final Channel b = channel(table.allocate());
+        assertNull(table.get(a.getID())); // Reserved, not attached
+        table.put(a);
+        table.put(b);
+        assertSame(a, table.get(a.getID()));
+        assertSame(b, table.get(b.getID()));
+        assertNull(table.get(-1));
+        assertNull(table.get(1000));
+        assertEquals(2, table.values().size());
+    }
+
+    @Test
+    public void testReusesLowestFreeID() {
+        final Channel[] chans = new Channel[5];
+        for (int i = 0; i < chans.length; i++) {
+            chans[i] = channel(table.allocate());
+            table.put(chans[i]);
+        }
+        table.remove(chans[3]);
+        table.remove(chans[1]);
+        assertNull(table.get(1));
+        assertEquals(1, table.allocate());
+        assertEquals(3, table.allocate());
+        assertEquals(5, table.allocate());
+    }
+
+    @Test
+    public void testRemoveUnattached() {
+        final Channel a = channel(table.allocate());
+        table.remove(a);
+        assertTrue(table.isEmpty());
+        assertEquals(a.getID(), table.allocate());
+    }
+
+    @Test
+    public void testGrows() {
+        for (int i = 0; i < 1000; i++)
+            table.put(channel(table.allocate()));
+        assertEquals(999, table.get(999).getID());
+        assertEquals(1000, table.values().size());
+        assertFalse(table.isEmpty());
+    }
+
+    @Test
+    public void testClearDoesNotReuse() {
+        final Channel a = channel(table.allocate());
+        table.put(a);
+        table.clear();
+        assertTrue(table.isEmpty());
+        table.remove(a);
+        assertEquals(1, table.allocate());
+    }
+
+    private static Channel channel(final int id) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{ Channel.class },
+                                                new InvocationHandler() {
+                                                    @Override
+                                                    public Object invoke(Object proxy, Method method, Object[] args) {
+                                                        if (method.getName().equals("getID"))
+                                                            return id;
+                                                        throw new UnsupportedOperationException(method.getName());
+                                                    }
+                                                });
+    }
+
+}
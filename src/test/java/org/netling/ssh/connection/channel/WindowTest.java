@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.connection.channel;
+
+import java.lang.management.ManagementFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WindowTest {
+
+    private static final int PACKET = 1024;
+    private static final int SIZE = 64 * PACKET;
+
+    @Test
+    public void testIncrementalAdjustment() {
+        final Window.Local win = new Window.Local(SIZE, PACKET);
+        win.consume(SIZE / 8 - 1);
+        assertEquals(0, win.neededAdjustment());
+        win.consume(1);
+        assertEquals(SIZE / 8, win.neededAdjustment());
+    }
+
+    @Test
+    public void testFixedSize()
+            throws InterruptedException {
+        final Window.Local win = new Window.Local(SIZE, PACKET);
+        for (int i = 0; i < 4; i++)
+            drainAndWait(win);
+        assertEquals(SIZE, win.getLimit());
+    }
+
+    @Test
+    public void testGrowsWhenWindowLimited()
+            throws InterruptedException {
+        final Window.Local win = new Window.Local(SIZE, 4 * SIZE, PACKET);
+        for (int i = 0; i < 4; i++)
+            drainAndWait(win);
+        assertTrue(win.getRTT() > 0);
+        assertTrue(win.getStallCount() > 0);
+        assertTrue(win.getLimit() > SIZE);
+        assertTrue(win.getLimit() <= 4 * SIZE);
+    }
+
+    /** Per-packet window accounting must not allocate while debug logging is off */
+    @Test
+    public void testNoAllocationPerPacket() {
+        final java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final Logger localLog = (Logger) LoggerFactory.getLogger(Window.Local.class);
+        final Logger remoteLog = (Logger) LoggerFactory.getLogger(Window.Remote.class);
+        final Level localLevel = localLog.getLevel();
+        final Level remoteLevel = remoteLog.getLevel();
+        localLog.setLevel(Level.INFO);
+        remoteLog.setLevel(Level.INFO);
+        try {
+            final Window.Local local = new Window.Local(SIZE, 4 * SIZE, PACKET);
+            final Window.Remote remote = new Window.Remote(SIZE, PACKET);
+            // Warm up, so that class loading and compilation are not counted
+            exchangePackets(local, remote, 100000);
+
+            final long tid = Thread.currentThread().getId();
+            final long before = threads.getThreadAllocatedBytes(tid);
+            exchangePackets(local, remote, 100000);
+            final long allocated = threads.getThreadAllocatedBytes(tid) - before;
+            // Leave room for what measuring itself allocates, well below a byte per packet
+            assertTrue("Allocated " + allocated + " bytes", allocated < 4096);
+        } finally {
+            localLog.setLevel(localLevel);
+            remoteLog.setLevel(remoteLevel);
+        }
+    }
+
+    private static void exchangePackets(Window.Local local, Window.Remote remote, int packets) {
+        for (int i = 0; i < packets; i++) {
+            remote.consume(PACKET);
+            local.consume(PACKET);
+            final int adjustment = local.neededAdjustment();
+            if (adjustment > 0) {
+                local.expand(adjustment);
+                remote.expand(adjustment);
+            }
+        }
+    }
+
+    /** Remote end uses up the whole window, and the next data arrives a "round trip" after our adjustment */
+    private void drainAndWait(Window.Local win)
+            throws InterruptedException {
+        win.consume(win.getSize());
+        win.expand(win.neededAdjustment());
+        Thread.sleep(5);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.netling.ssh.common.Factory;
+import org.netling.ssh.common.Message;
+import org.netling.ssh.common.SSHException;
+import org.netling.ssh.common.SSHPacket;
+import org.netling.ssh.common.SSHPacketHandler;
+import org.netling.ssh.transport.cipher.AES128CTR;
+import org.netling.ssh.transport.cipher.AES128GCM;
+import org.netling.ssh.transport.cipher.AES256CTR;
+import org.netling.ssh.transport.cipher.AES256GCM;
+import org.netling.ssh.transport.cipher.ChachaPolyCipher;
+import org.netling.ssh.transport.cipher.Cipher;
+import org.netling.ssh.transport.mac.HMACSHA1;
+import org.netling.ssh.transport.mac.HMACSHA2256;
+import org.netling.ssh.transport.mac.HMACSHA2256ETM;
+import org.netling.ssh.transport.mac.MAC;
+import org.netling.ssh.transport.random.JCERandom;
+
+/**
+ * Compares the throughput of the AEAD ciphers with that of CTR mode plus an HMAC, by pushing channel-sized packets
+ * through an {@link Encoder} and a {@link Decoder}. Not a unit test, as timings depend on the machine; run it with the
+ * test classpath, optionally giving the number of megabytes to transfer per algorithm (default 256).
+ */
+public class CipherBenchmark {
+
+    private static final int PAYLOAD = 32 * 1024;
+    private static final int PACKETS_PER_BATCH = 64;
+
+    private final byte[] key = new byte[64];
+    private final byte[] iv = new byte[64];
+    private final byte[] data = new byte[PAYLOAD];
+
+    private final Encoder encoder = new Encoder(new JCERandom(), new ReentrantLock());
+    private final Decoder decoder = new Decoder(new SSHPacketHandler() {
+        @Override
+        public void handle(Message msg, SSHPacket buf)
+                throws SSHException {
+            received += buf.available();
+        }
+    });
+
+    private long received;
+
+    private CipherBenchmark(Factory.Named<Cipher> cipherFactory, Factory.Named<MAC> macFactory) {
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+            iv[i] = (byte) (64 - i);
+        }
+        final Cipher enc = cipherFactory.create();
+        enc.init(Cipher.Mode.Encrypt, key, iv);
+        final Cipher dec = cipherFactory.create();
+        dec.init(Cipher.Mode.Decrypt, key, iv);
+        MAC encMAC = null;
+        MAC decMAC = null;
+        if (macFactory != null) {
+            encMAC = macFactory.create();
+            encMAC.init(key);
+            decMAC = macFactory.create();
+            decMAC.init(key);
+        }
+        encoder.setAlgorithms(enc, encMAC, null);
+        decoder.setAlgorithms(dec, decMAC, null);
+    }
+
+    /** @return the time taken in nanoseconds to encode and decode {@code batches} batches of packets */
+    private long run(int batches)
+            throws IOException {
+        final SSHPacket header = new SSHPacket(Message.CHANNEL_DATA).putInt(0).putInt(PAYLOAD);
+        final SSHPacket out = new SSHPacket(PAYLOAD + 256);
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream(PACKETS_PER_BATCH * (PAYLOAD + 256));
+        final long start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+            encoded.reset();
+            for (int p = 0; p < PACKETS_PER_BATCH; p++) {
+                encoder.encode(header, data, 0, PAYLOAD, out);
+                encoded.write(out.array(), out.rpos(), out.available());
+            }
+            final InputStream in = new ByteArrayInputStream(encoded.toByteArray());
+            while (decoder.receive(in) != -1) {
+                // Decoder hands over decoded packets as it goes
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void measure(String name, Factory.Named<Cipher> cipherFactory, Factory.Named<MAC> macFactory,
+                                int megabytes)
+            throws IOException {
+        final int batches = Math.max(1, megabytes * 1024 * 1024 / (PACKETS_PER_BATCH * PAYLOAD));
+        final CipherBenchmark bench = new CipherBenchmark(cipherFactory, macFactory);
+        bench.run(batches); // Warm up
+        final long elapsed = bench.run(batches);
+        final double mb = (double) batches * PACKETS_PER_BATCH * PAYLOAD / (1024 * 1024);
+        System.out.printf("%-45s %8.1f MB/s%n", name, mb / (elapsed / 1e9));
+    }
+
+    public static void main(String... args)
+            throws IOException {
+        final int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        measure("aes128-ctr + hmac-sha1", new AES128CTR.Factory(), new HMACSHA1.Factory(), megabytes);
+        measure("aes128-ctr + hmac-sha2-256", new AES128CTR.Factory(), new HMACSHA2256.Factory(), megabytes);
+        measure("aes128-ctr + hmac-sha2-256-etm@openssh.com", new AES128CTR.Factory(), new HMACSHA2256ETM.Factory(),
+                megabytes);
+        measure("aes256-ctr + hmac-sha2-256", new AES256CTR.Factory(), new HMACSHA2256.Factory(), megabytes);
+        measure("aes128-gcm@openssh.com", new AES128GCM.Factory(), null, megabytes);
+        measure("aes256-gcm@openssh.com", new AES256GCM.Factory(), null, megabytes);
+        measure("chacha20-poly1305@openssh.com", new ChachaPolyCipher.Factory(), null, megabytes);
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.netling.ssh.common.Factory;
+import org.netling.ssh.common.Message;
+import org.netling.ssh.common.SSHException;
+import org.netling.ssh.common.SSHPacket;
+import org.netling.ssh.common.SSHPacketHandler;
+import org.netling.ssh.transport.cipher.AES128CBC;
+import org.netling.ssh.transport.cipher.AES128CTR;
+import org.netling.ssh.transport.cipher.AES256GCM;
+import org.netling.ssh.transport.cipher.ChachaPolyCipher;
+import org.netling.ssh.transport.cipher.Cipher;
+import org.netling.ssh.transport.mac.HMACSHA1;
+import org.netling.ssh.transport.mac.HMACSHA2256ETM;
+import org.netling.ssh.transport.mac.HMACSHA2512ETM;
+import org.netling.ssh.transport.mac.MAC;
+import org.netling.ssh.transport.random.JCERandom;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round-trips packets through an {@link Encoder} and a {@link Decoder}, encoded both in place and from the caller's
+ * array
+ */
+public class ConverterTest {
+
+    private final byte[] key = new byte[64];
+    private final byte[] iv = new byte[64];
+
+    private final List<String> received = new ArrayList<String>();
+
+    private Encoder encoder;
+    private Decoder decoder;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+            iv[i] = (byte) (64 - i);
+        }
+        encoder = new Encoder(new JCERandom(), new ReentrantLock());
+        decoder = new Decoder(new SSHPacketHandler() {
+            @Override
+            public void handle(Message msg, SSHPacket buf)
+                    throws SSHException {
+                assertEquals(Message.IGNORE, msg);
+                received.add(buf.readString());
+            }
+        });
+    }
+
+    @Test
+    public void testNone()
+            throws IOException {
+        assertEquals(roundTrip(), received);
+    }
+
+    @Test
+    public void testCipherAndMAC()
+            throws IOException {
+        useAlgorithms(new AES128CTR.Factory(), new HMACSHA1.Factory());
+        assertEquals(roundTrip(), received);
+    }
+
+    @Test
+    public void testBlockCipher()
+            throws IOException {
+        useAlgorithms(new AES128CBC.Factory(), new HMACSHA1.Factory());
+        assertEquals(roundTrip(), received);
+    }
+
+    @Test
+    public void testEncryptThenMAC()
+            throws IOException {
+        useAlgorithms(new AES128CTR.Factory(), new HMACSHA2256ETM.Factory());
+        assertEquals(roundTrip(), received);
+    }
+
+    @Test(expected = TransportException.class)
+    public void testEncryptThenMACTampered()
+            throws IOException {
+        useAlgorithms(new AES128CTR.Factory(), new HMACSHA2512ETM.Factory());
+        final byte[] packet = encode("tampered");
+        packet[10] ^= 1;
+        feed(packet);
+    }
+
+    @Test
+    public void testAEAD()
+            throws IOException {
+        useAlgorithms(new AES256GCM.Factory(), null);
+        assertEquals(roundTrip(), received);
+    }
+
+    @Test
+    public void testChachaPoly()
+            throws IOException {
+        useAlgorithms(new ChachaPolyCipher.Factory(), null);
+        assertEquals(roundTrip(), received);
+    }
+
+    @Test(expected = TransportException.class)
+    public void testAEADTampered()
+            throws IOException {
+        useAlgorithms(new AES256GCM.Factory(), null);
+        final byte[] packet = encode("tampered");
+        packet[10] ^= 1;
+        feed(packet);
+    }
+
+    private void useAlgorithms(Factory.Named<Cipher> cipherFactory, Factory.Named<MAC> macFactory) {
+        final Cipher enc = cipherFactory.create();
+        enc.init(Cipher.Mode.Encrypt, key, iv);
+        final Cipher dec = cipherFactory.create();
+        dec.init(Cipher.Mode.Decrypt, key, iv);
+        MAC encMAC = null;
+        MAC decMAC = null;
+        if (macFactory != null) {
+            encMAC = macFactory.create();
+            encMAC.init(key);
+            decMAC = macFactory.create();
+            decMAC.init(key);
+        }
+        encoder.setAlgorithms(enc, encMAC, null);
+        decoder.setAlgorithms(dec, decMAC, null);
+    }
+
+    private List<String> roundTrip()
+            throws IOException {
+        final List<String> sent = new ArrayList<String>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int len = 0; len < 100; len += 7) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < len; i++)
+                sb.append((char) ('a' + i % 26));
+            sent.add(sb.toString());
+            // Alternate between packets encoded in place and from the caller's array
+            out.write(len % 2 == 0 ? encode(sb.toString()) : encodeFromArray(sb.toString()));
+        }
+        feed(out.toByteArray());
+        return sent;
+    }
+
+    private byte[] encode(String s) {
+        final SSHPacket packet = new SSHPacket(Message.IGNORE).putString(s);
+        encoder.encode(packet);
+        return packet.getCompactData();
+    }
+
+    private byte[] encodeFromArray(String s) {
+        final SSHPacket header = new SSHPacket(Message.IGNORE).putInt(s.length());
+        final byte[] data = ("xx" + s).getBytes();
+        final SSHPacket out = new SSHPacket();
+        encoder.encode(header, data, 2, data.length - 2, out);
+        return out.getCompactData();
+    }
+
+    private void feed(byte[] data)
+            throws IOException {
+        final InputStream in = new ByteArrayInputStream(data);
+        while (decoder.receive(in) != -1) {
+            // Decoder hands over decoded packets as it goes
+        }
+    }
+
+}
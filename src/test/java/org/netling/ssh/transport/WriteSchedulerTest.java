@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010 netling project <http://netling.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netling.ssh.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.netling.ssh.common.Message;
+import org.netling.ssh.common.SSHPacket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteSchedulerTest {
+
+    private WriteScheduler scheduler;
+
+    private final List<WriteScheduler.Turn> turns = new ArrayList<WriteScheduler.Turn>();
+    private final List<String> names = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        scheduler = new WriteScheduler(new ReentrantLock());
+    }
+
+    @Test
+    public void testTransportLayerNotScheduled() {
+        assertFalse(WriteScheduler.isScheduled(new SSHPacket(Message.IGNORE)));
+        assertTrue(WriteScheduler.isScheduled(new SSHPacket(Message.SERVICE_REQUEST)));
+        assertTrue(WriteScheduler.isScheduled(data(0, 10)));
+    }
+
+    @Test
+    public void testIdleGetsTurnImmediately() {
+        final WriteScheduler.Turn turn = scheduler.enqueue(data(0, 10));
+        assertTrue(scheduler.isCurrent(turn));
+        assertFalse(scheduler.hasWaiting());
+    }
+
+    @Test
+    public void testInterleavesChannels() {
+        enqueue("bulk0", data(1, 32 * 1024));
+        enqueue("bulk1", data(1, 32 * 1024));
+        enqueue("bulk2", data(1, 32 * 1024));
+        enqueue("bulk3", data(1, 32 * 1024));
+        enqueue("interactive", data(2, 1));
+        enqueue("adjust", new SSHPacket(Message.CHANNEL_WINDOW_ADJUST).putInt(2).putInt(1024));
+        assertEquals("[bulk0, adjust, bulk1, interactive, bulk2, bulk3]", drain().toString());
+    }
+
+    private SSHPacket data(int recipient, int len) {
+        return new SSHPacket(Message.CHANNEL_DATA).putInt(recipient).putString(new byte[len]);
+    }
+
+    private void enqueue(String name, SSHPacket packet) {
+        turns.add(scheduler.enqueue(packet));
+        names.add(name);
+    }
+
+    private List<String> drain() {
+        final List<String> order = new ArrayList<String>();
+        while (order.size() < turns.size())
+            for (int i = 0; i < turns.size(); i++)
+                if (scheduler.isCurrent(turns.get(i))) {
+                    order.add(names.get(i));
+                    scheduler.done(turns.get(i));
+                    break;
+                }
+        return order;
+    }
+
+}
@@ -19,6 +19,7 @@
 package org.netling.ssh.util;
 
 import org.netling.ssh.common.Buffer;
+import org.netling.ssh.common.BufferPool;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -28,6 +29,7 @@ import java.security.GeneralSecurityException;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /** Tests {@link Buffer} functionality */
 public class BufferTest {
@@ -87,6 +89,19 @@ public class BufferTest {
         assertEquals(4, posBuf.available());
     }
 
+    @Test
+    public void testPooled() {
+        final BufferPool pool = new BufferPool(1);
+        final Buffer.PlainBuffer buf = new Buffer.PlainBuffer(100, pool);
+        final byte[] initial = buf.array();
+        // growing hands the smaller array back to the pool
+        buf.putRawBytes(new byte[Buffer.DEFAULT_SIZE + 1]);
+        assertSame(initial, pool.obtain(100));
+        final byte[] grown = buf.array();
+        buf.release();
+        assertSame(grown, pool.obtain(Buffer.DEFAULT_SIZE + 1));
+    }
+
     @Test
     public void testPublickey() {
         // TODO stub